@@ -47,14 +47,9 @@ public class Agent {
     protected static final String VERSION = "4.0.1";
     
     /**
-     * The model holds all data of the call stack analysis
+     * Run the analysis and stores results into one model per process
      */
-    public final Model model = new Model();
-    
-    /**
-     * Run the analysis and stores results into the model
-     */
-    public final CallStackAnalyzer analyzer = new CallStackAnalyzer(model);
+    public final CallStackAnalyzer analyzer = new CallStackAnalyzer();
     
     /**
      * The default port should not be used by any other application. 
@@ -87,7 +82,7 @@ public class Agent {
     }
     
     private void startHTTPServerThread() {
-        final Thread serverThread = new WebServer(port, model);
+        final Thread serverThread = new WebServer(port, analyzer);
         serverThread.setPriority(Thread.NORM_PRIORITY);
         serverThread.start();
     }
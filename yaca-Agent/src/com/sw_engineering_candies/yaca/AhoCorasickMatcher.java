@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The class finds any of a set of literals in a text with one pass over the
+ * text (Aho-Corasick). The automaton is a complete transition table over the
+ * characters of the literals, all other characters share one class. So each
+ * character of the text costs one table lookup, independent of the number of
+ * literals.
+ */
+public final class AhoCorasickMatcher {
+    
+    /**
+     * Class of the characters, which are not part of any literal
+     */
+    private static final int OTHER_CLASS = 0;
+    
+    private static final int ROOT = 0;
+    
+    /**
+     * Attributes
+     */
+    private final int[] asciiClasses = new int[128];
+    
+    private final char[] alphabet;
+    
+    private final int numberOfClasses;
+    
+    /**
+     * Transition table, indexed by state * numberOfClasses + class
+     */
+    private final int[] transitions;
+    
+    /**
+     * A literal ends in the state or in one of its suffix states
+     */
+    private final boolean[] isMatch;
+    
+    /**
+     * Constructor
+     */
+    public AhoCorasickMatcher(final Collection<String> literals) {
+        
+        // Assign a class to each character of the literals
+        final StringBuilder characters = new StringBuilder();
+        int numberOfStates = 1;
+        for (final String literal : literals) {
+            characters.append(literal);
+            numberOfStates += literal.length();
+        }
+        final char[] sorted = characters.toString().toCharArray();
+        Arrays.sort(sorted);
+        int length = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (0 == length || sorted[length - 1] != sorted[i]) {
+                sorted[length++] = sorted[i];
+            }
+        }
+        alphabet = Arrays.copyOf(sorted, length);
+        numberOfClasses = length + 1;
+        for (int i = 0; i < alphabet.length; i++) {
+            if (alphabet[i] < asciiClasses.length) {
+                asciiClasses[alphabet[i]] = i + 1;
+            }
+        }
+        
+        // Build the trie
+        final int[] table = new int[numberOfStates * numberOfClasses];
+        Arrays.fill(table, -1);
+        final boolean[] matches = new boolean[numberOfStates];
+        int stateCount = 1;
+        for (final String literal : literals) {
+            int state = ROOT;
+            for (int i = 0; i < literal.length(); i++) {
+                final int index = state * numberOfClasses + classOf(literal.charAt(i));
+                if (table[index] < 0) {
+                    table[index] = stateCount++;
+                }
+                state = table[index];
+            }
+            matches[state] = true;
+        }
+        
+        // Complete the transitions with the failure links in breadth first
+        // order, so the failure state of each state is already complete
+        final int[] failures = new int[stateCount];
+        final int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < numberOfClasses; c++) {
+            final int next = table[ROOT * numberOfClasses + c];
+            if (next < 0) {
+                table[ROOT * numberOfClasses + c] = ROOT;
+            } else {
+                failures[next] = ROOT;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            matches[state] |= matches[failures[state]];
+            for (int c = 0; c < numberOfClasses; c++) {
+                final int index = state * numberOfClasses + c;
+                final int fallback = table[failures[state] * numberOfClasses + c];
+                if (table[index] < 0) {
+                    table[index] = fallback;
+                } else {
+                    failures[table[index]] = fallback;
+                    queue[tail++] = table[index];
+                }
+            }
+        }
+        transitions = Arrays.copyOf(table, stateCount * numberOfClasses);
+        isMatch = Arrays.copyOf(matches, stateCount);
+    }
+    
+    /**
+     * Returns true if the text contains at least one of the literals
+     */
+    public boolean find(final String text) {
+        if (isMatch[ROOT]) {
+            return true;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state * numberOfClasses + classOf(text.charAt(i))];
+            if (isMatch[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private int classOf(final char c) {
+        if (c < asciiClasses.length) {
+            return asciiClasses[c];
+        }
+        final int index = Arrays.binarySearch(alphabet, c);
+        return (index < 0) ? OTHER_CLASS : index + 1;
+    }
+    
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The class encodes bytes, variable length numbers and strings into a fixed
+ * byte buffer and writes the buffer to the output stream each time it is
+ * full, like JsonStreamWriter. Numbers are written with seven bits per byte,
+ * the highest bit is set if more bytes follow, so small ids and counts need
+ * just one or two bytes. Strings are written as length of the UTF-8 bytes
+ * followed by the bytes.
+ */
+public class BinaryStreamWriter {
+    
+    /**
+     * Attributes
+     */
+    private final OutputStream out;
+    
+    private final byte[] buffer;
+    
+    private int position = 0;
+    
+    /**
+     * Constructor, the buffer can be reused after flush
+     */
+    public BinaryStreamWriter(final OutputStream out, final byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+    
+    public BinaryStreamWriter writeByte(final int value) throws IOException {
+        if (position + 1 > buffer.length) {
+            writeBuffer();
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+    
+    /**
+     * Writes a number greater or equal zero, negative numbers are written as
+     * zero
+     */
+    public BinaryStreamWriter writeVarint(final long value) throws IOException {
+        if (position + 10 > buffer.length) {
+            writeBuffer();
+        }
+        long rest = Math.max(0L, value);
+        while (rest >= 0x80L) {
+            buffer[position++] = (byte) (0x80 | (rest & 0x7F));
+            rest >>>= 7;
+        }
+        buffer[position++] = (byte) rest;
+        return this;
+    }
+    
+    public BinaryStreamWriter writeString(final String value) throws IOException {
+        final int length = value.length();
+        long numberOfBytes = 0L;
+        for (int i = 0; i < length; i++) {
+            numberOfBytes += getNumberOfBytes(value.charAt(i));
+        }
+        writeVarint(numberOfBytes);
+        for (int i = 0; i < length; i++) {
+            writeChar(value.charAt(i));
+        }
+        return this;
+    }
+    
+    /**
+     * Writes the content of the buffer to the output stream
+     */
+    public void flush() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+    
+    /**
+     * Method names with supplementary characters are rare, so the surrogates
+     * are replaced as in JsonStreamWriter
+     */
+    private static int getNumberOfBytes(final char value) {
+        if (value < 0x80 || Character.isSurrogate(value)) {
+            return 1;
+        }
+        return (value < 0x800) ? 2 : 3;
+    }
+    
+    private void writeChar(final char value) throws IOException {
+        if (position + 3 > buffer.length) {
+            writeBuffer();
+        }
+        if (value < 0x80) {
+            buffer[position++] = (byte) value;
+        } else if (value < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (value >> 6));
+            buffer[position++] = (byte) (0x80 | (value & 0x3F));
+        } else if (Character.isSurrogate(value)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (value >> 12));
+            buffer[position++] = (byte) (0x80 | ((value >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (value & 0x3F));
+        }
+    }
+    
+    private void writeBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+    
+}
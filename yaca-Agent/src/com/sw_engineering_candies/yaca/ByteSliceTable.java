@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class maps byte slices to dense int ids. A slice is looked up in an
+ * open addressing hash table directly in the buffer of the caller, so a known
+ * key doesn't need any allocation. The keys are copied into one byte array
+ * the first time they are seen.
+ */
+public class ByteSliceTable {
+    
+    /**
+     * Constants
+     */
+    public static final int NO_ID = -1;
+    
+    private static final int MINIMUM_CAPACITY = 16;
+    
+    /**
+     * Hash table with ids, the length is a power of two
+     */
+    private int[] slotIds;
+    
+    /**
+     * Bytes of all keys, the key of each id is found by offset and length
+     */
+    private byte[] keyBytes;
+    
+    private int keyBytesLength = 0;
+    
+    private int[] keyOffsets;
+    
+    private int[] keyLengths;
+    
+    private int[] keyHashes;
+    
+    /**
+     * Number of assigned ids
+     */
+    private int size = 0;
+    
+    /**
+     * Constructor
+     */
+    public ByteSliceTable(final int expectedSize, final int expectedKeyLength) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, NO_ID);
+        final int length = Math.max(expectedSize, MINIMUM_CAPACITY);
+        keyBytes = new byte[length * expectedKeyLength];
+        keyOffsets = new int[length];
+        keyLengths = new int[length];
+        keyHashes = new int[length];
+    }
+    
+    /**
+     * Returns the id of the key and assigns the next free id if the key is
+     * unknown
+     */
+    public int intern(final byte[] bytes, final int offset, final int length) {
+        final int hash = hash(bytes, offset, length);
+        final int mask = slotIds.length - 1;
+        int slot = indexFor(hash, mask);
+        int current;
+        while ((current = slotIds[slot]) != NO_ID) {
+            if (keyHashes[current] == hash && isEqual(current, bytes, offset, length)) {
+                return current;
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        final int id = size;
+        if (id == keyOffsets.length) {
+            final int capacity = id * 2;
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            keyHashes = Arrays.copyOf(keyHashes, capacity);
+        }
+        if (keyBytesLength + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytesLength + length, keyBytes.length * 2));
+        }
+        System.arraycopy(bytes, offset, keyBytes, keyBytesLength, length);
+        keyOffsets[id] = keyBytesLength;
+        keyLengths[id] = length;
+        keyHashes[id] = hash;
+        keyBytesLength += length;
+        slotIds[slot] = id;
+        size++;
+        
+        // Keep load factor below 0.5 to have short probe sequences
+        if (size * 2 > slotIds.length) {
+            rehash(slotIds.length * 2);
+        }
+        return id;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void clear() {
+        Arrays.fill(slotIds, NO_ID);
+        keyBytesLength = 0;
+        size = 0;
+    }
+    
+    private boolean isEqual(final int id, final byte[] bytes, final int offset, final int length) {
+        if (keyLengths[id] != length) {
+            return false;
+        }
+        final int keyOffset = keyOffsets[id];
+        for (int i = 0; i < length; i++) {
+            if (keyBytes[keyOffset + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void rehash(final int capacity) {
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, NO_ID);
+        final int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = indexFor(keyHashes[id], mask);
+            while (slotIds[slot] != NO_ID) {
+                slot = (slot + 1) & mask;
+            }
+            slotIds[slot] = id;
+        }
+    }
+    
+    private static int hash(final byte[] bytes, final int offset, final int length) {
+        // FNV-1a
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+    
+    private static int indexFor(final int hash, final int mask) {
+        // Spread the bits of the hash, because similar method names have
+        // similar hashes
+        final int spread = hash * 0x9E3779B9;
+        return (spread ^ (spread >>> 16)) & mask;
+    }
+    
+}
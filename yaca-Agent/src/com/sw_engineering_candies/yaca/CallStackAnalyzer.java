@@ -31,38 +31,24 @@
 
 package com.sw_engineering_candies.yaca;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.lang.management.ManagementFactory;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import sun.jvmstat.monitor.MonitorException;
-import sun.jvmstat.monitor.MonitoredHost;
-import sun.jvmstat.monitor.MonitoredVm;
-import sun.jvmstat.monitor.MonitoredVmUtil;
-import sun.jvmstat.monitor.VmIdentifier;
-import sun.tools.attach.HotSpotVirtualMachine;
-
-import com.sun.tools.attach.AttachNotSupportedException;
-import com.sun.tools.attach.VirtualMachine;
-import com.sun.tools.attach.VirtualMachineDescriptor;
-
 /**
- * The class collects call stack data from the VM
+ * The class attaches to the VMs and collects their call stack data. Each
+ * attached process is sampled into its own model by a process sampler, all
+ * samplers share one scheduled executor and the overhead budget.
  */
 public class CallStackAnalyzer {
     
@@ -75,249 +61,329 @@ public class CallStackAnalyzer {
     
     private static final String INVALID_PROCESS_ID = "----";
     
+    private static final String DEFAULT_MAIN_CLASS_NAME = "org.apache.catalina.startup.Bootstrap";
+    
+    private static final int NUMBER_OF_SAMPLER_THREADS = Integer.getInteger("yaca.samplerThreads", 4);
+    
+    private static final long POLL_INTERVAL_MILLIS = 1000L;
+    
     /**
      * Attributes
      */
-    private static String currentProcessID = INVALID_PROCESS_ID;
+    private final ProcessDiscovery discovery = new ProcessDiscovery();
     
-    private static String newProcessID = "";
+    /**
+     * The attached processes by process id
+     */
+    private final ConcurrentHashMap<String, ProcessSampler> samplers = new ConcurrentHashMap<String, ProcessSampler>();
     
-    protected static CopyOnWriteArrayList<Integer> allVirtualMachines = new CopyOnWriteArrayList<Integer>();
+    /**
+     * The processes attached with PUT /process/{pid} stay attached, if
+     * another process gets active, guarded by the lock of the samplers
+     */
+    private final Set<String> explicitProcessIds = new HashSet<String>();
     
-    protected Model model = null;
+    /**
+     * The processes which couldn't be attached aren't selected again by the
+     * analyzer, e.g. VMs of other users
+     */
+    private final Set<String> failedProcessIds = new HashSet<String>();
     
     /**
-     * Constructor
+     * A process is selected by the analyzer just until the user selects or
+     * detaches a process
      */
-    public CallStackAnalyzer(Model model) {
-        this.model = model;
-    }
+    private volatile boolean isSelectedByUser = false;
+    
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(NUMBER_OF_SAMPLER_THREADS,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Yaca Sampler " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     
+    /**
+     * The requests without process id address the active process
+     */
+    private volatile String activeProcessId = INVALID_PROCESS_ID;
+    
+    /**
+     * The model is used until a process is attached, its settings are
+     * inherited by the models of the attached processes
+     */
+    private final Model defaultModel = new Model();
+    
+    /**
+     * Methods
+     */
     public void start() {
-        
-        HotSpotVirtualMachine hsVm = null;
         do {
             
-            try {
-                
-                if (allVirtualMachines.size() == 0) {
-                    
-                    findOtherAttachableJavaVMs();
-                    LOGGER.debug("VirtualMachines=" + allVirtualMachines);
-                    /*
-                    if (!allVirtualMachines.isEmpty()) {
-                        newProcessID = allVirtualMachines.get(0).toString();
-                        LOGGER.debug("Select pid=" + currentProcessID);
-                        model.setConnected(true);
-                    }*/
-                    if (!allVirtualMachines.isEmpty()) {
-//                      String TargetMainClassName = "com.sw_engineering_candies.yaca.YacaAgentTestClient";
-                        String TargetMainClassName = "org.apache.catalina.startup.Bootstrap";
-                        newProcessID = getTargetProcessIDInVM(TargetMainClassName);
-                        if ("".equals(newProcessID))
-                            newProcessID = allVirtualMachines.get(0).toString();
-                        LOGGER.debug("Select pid=" + currentProcessID);
-                        model.setConnected(true);
-                    }
-                }
-                
-                getProcessIDInVM();
-                if (!currentProcessID.equals(newProcessID)) {
-                    LOGGER.info("Request change to pid=" + newProcessID + " allVirtualMachines=" + allVirtualMachines);
-                    // Attach to new virtual machine
-                    hsVm = (HotSpotVirtualMachine) VirtualMachine.attach(newProcessID);
-                    model.setActiveProcess(newProcessID);
-                    model.reset();
-                    currentProcessID = newProcessID;
-                    model.setConnected(true);
-                }
-                
-                if (model.isConnected()) {
-                    
-                    // Update filter white list
-//                    final String filterWhite = "((y|Y)aca|(s|S)ort)";
-//                    final String filterBlack = "(eclipse|zeroturnaround)";
-//                    final String filterWhite = "((m|M)ountain|Exception|cmmn|supporters)";
-//                    final String filterBlack = "(eclipse|zeroturnaround)";
-                    final String filterWhite = model.getFilterWhiteList();
-                    final String filterBlack = model.getFilterBlackList();
-                    
-                    final Pattern patternWhiteList = Pattern.compile(filterWhite);
-                    final Pattern patternBlackList = Pattern.compile(filterBlack);
-                    
-                    try {
-                        final List<Node> entryList = new ArrayList<Node>(10);
-                        final InputStream in = hsVm.remoteDataDump(new Object[0]);
-                        final BufferedReader br = new BufferedReader(new InputStreamReader(in));
-                        String line = "";
-                        while ((line = br.readLine()) != null) {
-                            if (line.startsWith("\tat ") && line.length() > 10) {
-                                final String fullMethodName = line.substring(4, line.lastIndexOf('(')).trim();
-                                if (filterWhite.isEmpty() || patternWhiteList.matcher(fullMethodName).find()) {
-                                    if (filterBlack.isEmpty() || !patternBlackList.matcher(fullMethodName).find()) {
-                                        LOGGER.info(line);
-                                        final String[] split = fullMethodName.split("\\.");
-                                        if (split.length > 2) {
-                                            final int indexOfMethodName = split.length - 1;
-                                            final int indexOfClassName = indexOfMethodName - 1;
-                                            final StringBuffer packageName = new StringBuffer(line.length());
-                                            packageName.append(split[0]);
-                                            for (int i = 1; i < indexOfClassName; i++) {
-                                                packageName.append('.').append(split[i]);
-                                            }
-                                            
-                                            String className = split[indexOfClassName];
-                                            String packageString = packageName.toString();
-                                            final Node entry = new Node();
-                                            String methodName = split[indexOfMethodName];
-                                            entry.setMethodName(methodName);
-                                            entry.setClassName(className);
-                                            entry.setPackageName(packageString);
-                                            entry.setNewItem(true);
-                                            entryList.add(entry);
-                                            
-                                            LOGGER.debug("line='" + line + "'" + NL + "  packageString='" + packageString + NL + "  className='"
-                                                    + className + NL + "  methodName='" + methodName + "'");
-                                        } else {
-                                            LOGGER.warn("Can't process line '" + line + "'");
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        model.append(entryList, true, true);
-                        
-                        br.close();
-                        in.close();
-                        
-                    } catch (final IOException e) {
-                        LOGGER.debug("IOException " + e.getMessage());
-                        model.setConnected(false);
+            // Processes which are not available any more are removed
+            for (final ProcessSampler sampler : samplers.values()) {
+                if (sampler.isClosed()) {
+                    samplers.remove(sampler.getProcessId(), sampler);
+                    LOGGER.info("Removed pid=" + sampler.getProcessId());
+                    if (sampler.isAttachFailed()) {
+                        failedProcessIds.add(sampler.getProcessId());
                     }
                 }
-                
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    LOGGER.error("Wait problem ", e);
-                }
-                
-            } catch (final AttachNotSupportedException e) {
-                if (model.isConnected()) {
-                    LOGGER.error("AttachNotSupportedException ", e);
-                }
-                model.reset();
-            } catch (IOException e) {
-                LOGGER.error("IOException " + e.getMessage());
-                model.reset();
+            }
+            
+            if (samplers.isEmpty() && !isSelectedByUser) {
+                selectProcess();
+            }
+            
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                LOGGER.error("Wait problem ", e);
             }
         } while (true);
     }
     
-    public synchronized static List<Integer> findOtherAttachableJavaVMs() {
+    /**
+     * Selects the first Tomcat process, or the first process which hasn't
+     * failed to attach before
+     */
+    private void selectProcess() {
+        final List<Integer> processIds = discovery.getProcessIds();
+        LOGGER.debug("VirtualMachines=" + processIds);
         
-        allVirtualMachines.clear();
+        // A process id may be reused by a new process
+        final Set<String> availableProcessIds = new HashSet<String>();
+        for (final Integer processId : processIds) {
+            availableProcessIds.add(processId.toString());
+        }
+        failedProcessIds.retainAll(availableProcessIds);
         
-        List<VirtualMachineDescriptor> vmDesc = VirtualMachine.list();
-        for (int i = 0; i < vmDesc.size(); i++) {
-            VirtualMachineDescriptor descriptor = vmDesc.get(i);
-            
-            final String nextPID = descriptor.id();
-            
-            final String ownPID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
-            if (!ownPID.equals(nextPID)) {
-                
-                final StringBuilder message = new StringBuilder();
-                message.append("Process ID=").append(nextPID).append(NL);
-                
-                VirtualMachine vm;
-                try {
-                    vm = VirtualMachine.attach(descriptor);
-                    
-                    Properties props = vm.getSystemProperties();
-                    message.append("   java.version=").append(props.getProperty("java.version")).append(NL);
-                    message.append("   java.vendor=").append(props.getProperty("java.vendor")).append(NL);
-                    message.append("   java.home=").append(props.getProperty("java.home")).append(NL);
-                    message.append("   sun.arch.data.model=").append(props.getProperty("sun.arch.data.model")).append(NL);
-                    
-                    Properties properties = vm.getAgentProperties();
-                    Enumeration<Object> keys = properties.keys();
-                    while (keys.hasMoreElements()) {
-                        Object elementKey = keys.nextElement();
-                        message.append("   ").append(elementKey).append("=").append(properties.getProperty(elementKey.toString())).append(NL);
-                    }
-                    LOGGER.debug(message);
-                    vm.detach();
-                    
-                    int processId = Integer.parseInt(nextPID);
-                    allVirtualMachines.add(processId);
-                } catch (AttachNotSupportedException e) {
-                    LOGGER.error(e.getMessage());
-                } catch (IOException e) {
-                    LOGGER.error(e.getMessage());
+        String processId = discovery.findProcessId(DEFAULT_MAIN_CLASS_NAME);
+        if ("".equals(processId) || failedProcessIds.contains(processId)) {
+            processId = "";
+            for (final Integer candidate : processIds) {
+                if (!failedProcessIds.contains(candidate.toString())) {
+                    processId = candidate.toString();
+                    break;
                 }
             }
         }
-        Collections.sort(allVirtualMachines);
-        Collections.reverse(allVirtualMachines);
-        return allVirtualMachines;
+        if (!processId.isEmpty()) {
+            LOGGER.debug("Select pid=" + processId);
+            activate(processId);
+        }
     }
     
-    public synchronized static void setProcessNewID(String processIdNew) {
-        String value = processIdNew.trim();
-        try {
-            Integer.valueOf(value);
-            LOGGER.info("Set new process id=" + value);
-            CallStackAnalyzer.newProcessID = value;
-        } catch (Exception ex) {
-            LOGGER.error("Invalid id=" + value);
+    /**
+     * Attaches to the process on request of the user, it stays attached
+     * until it is detached explicitly. The result is null for an invalid
+     * process id.
+     */
+    public ProcessSampler attach(final String processId) {
+        synchronized (samplers) {
+            final ProcessSampler sampler = attachSampler(processId);
+            if (null != sampler) {
+                explicitProcessIds.add(sampler.getProcessId());
+            }
+            return sampler;
         }
     }
     
-    private synchronized String getTargetProcessIDInVM(String classFullName){
-        String pid = "";
-        try {
-            // Checking for local Host, one can do for remote machine as well
-            MonitoredHost local = MonitoredHost.getMonitoredHost("localhost");
-            // Take all active VM's on Host, LocalHost here
-            Set<Integer> vmlist = new HashSet<>(local.activeVms());
-            for (Integer id : vmlist) {
-                // 1234 - Specifies the Java Virtual Machine identified by lvmid 1234 
-                // on an unnamed host. This string is transformed into the absolute 
-                // form //1234, which must be resolved against a HostIdentifier.
-                MonitoredVm vm = local.getMonitoredVm(new VmIdentifier(String.format("//%d", id)));
-                // take care of class file and jar file both
-                String processname = MonitoredVmUtil.mainClass(vm, true);
-                if (processname.startsWith(classFullName)){
-                    pid = id.toString();
-                    System.out.printf("//-- %d: %s%n", id, processname);
-                }
+    /**
+     * Attaches to the process, if it is not attached yet. The result is null
+     * for an invalid process id.
+     */
+    private ProcessSampler attachSampler(final String processId) {
+        final String value = processId.trim();
+        if (!isValidProcessId(value)) {
+            LOGGER.error("Invalid id=" + value);
+            return null;
+        }
+        synchronized (samplers) {
+            ProcessSampler sampler = samplers.get(value);
+            if (null == sampler || sampler.isClosed()) {
+                LOGGER.info("Attach pid=" + value + " mainClass=" + discovery.getMainClass(Integer.valueOf(value)));
+                final Model model = new Model();
+                model.copySettings(getActiveModel());
+                sampler = new ProcessSampler(value, model, executor, this);
+                samplers.put(value, sampler);
+                sampler.start();
             }
-        }catch (URISyntaxException ue){
-        }catch (MonitorException me){}
-        return pid;
+            return sampler;
+        }
     }
-    private synchronized void getProcessIDInVM(){
-        String pid = "";
-        try {
-            MonitoredHost local = MonitoredHost.getMonitoredHost("localhost");
-            Set<Integer> vmlist = new HashSet<>(local.activeVms());
-            for (Integer id : vmlist) {
-                MonitoredVm vm = local.getMonitoredVm(new VmIdentifier(String.format("//%d", id)));
-                String processname = MonitoredVmUtil.mainClass(vm, true);
-//                System.out.printf("//-- %d: %s%n", id, processname);
+    
+    /**
+     * Detaches from the process on request of the user, no other process is
+     * selected by the analyzer afterwards
+     */
+    public void detach(final String processId) {
+        isSelectedByUser = true;
+        detachSampler(processId.trim());
+    }
+    
+    private void detachSampler(final String processId) {
+        final ProcessSampler sampler;
+        synchronized (samplers) {
+            explicitProcessIds.remove(processId);
+            sampler = samplers.remove(processId);
+        }
+        if (null != sampler) {
+            sampler.close();
+        }
+    }
+    
+    /**
+     * Attaches to the process selected by the user and addresses it by the
+     * requests without process id
+     */
+    public void setActiveProcess(final String processId) {
+        isSelectedByUser = true;
+        activate(processId);
+    }
+    
+    /**
+     * The previous active process is detached, unless it has been attached
+     * explicitly
+     */
+    private void activate(final String processId) {
+        String previousProcessId = INVALID_PROCESS_ID;
+        synchronized (samplers) {
+            if (null == attachSampler(processId)) {
+                return;
+            }
+            if (!activeProcessId.equals(processId.trim()) && !explicitProcessIds.contains(activeProcessId)) {
+                previousProcessId = activeProcessId;
             }
-        }catch (URISyntaxException ue){
-        }catch (MonitorException me){}
+            activeProcessId = processId.trim();
+            LOGGER.info("Set active process id=" + activeProcessId);
+        }
+        if (!INVALID_PROCESS_ID.equals(previousProcessId)) {
+            detachSampler(previousProcessId);
+        }
+    }
+    
+    public String getActiveProcessId() {
+        return activeProcessId;
+    }
+    
+    /**
+     * Returns the model of the process, or null if it is not attached
+     */
+    public Model getModel(final String processId) {
+        final ProcessSampler sampler = samplers.get(processId);
+        return (null == sampler) ? null : sampler.getModel();
     }
-    protected synchronized static String getMainClassById(String pid){
+    
+    /**
+     * Returns the model of the active process, or the default model if no
+     * process is attached
+     */
+    public Model getActiveModel() {
+        final Model model = getModel(activeProcessId);
+        return (null == model) ? defaultModel : model;
+    }
+    
+    /**
+     * The overhead budget is shared by the sampled processes
+     */
+    public int getNumberOfProcesses() {
+        return Math.max(1, samplers.size());
+    }
+    
+    public String getJSONPVM() {
+        
+        final List<Integer> processIds = discovery.getProcessIds();
+        final StringBuffer fw = new StringBuffer(1000);
+        fw.append("{" + NL);
+        fw.append("\"process_id_available\":[");
+        fw.append(NL);
+        appendList(fw, processIds);
+        fw.append(NL + "],");
+        fw.append(NL);
+        fw.append("\"process_main_class\":{");
+        fw.append(NL);
+        boolean isFirst = true;
+        for (final Integer processId : processIds) {
+            fw.append(isFirst ? "    " : ",");
+            isFirst = false;
+            fw.append('"').append(processId).append("\":\"");
+            fw.append(discovery.getMainClass(processId).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        fw.append(NL + "},");
+        fw.append(NL);
+        fw.append("\"process_id_attached\":[");
+        fw.append(NL);
+        final List<String> attachedProcessIds = new ArrayList<String>(samplers.keySet());
+        Collections.sort(attachedProcessIds);
+        appendList(fw, attachedProcessIds);
+        fw.append(NL + "],");
+        fw.append(NL);
+        fw.append("\"process_id_active\":\"" + activeProcessId + "\"" + NL);
+        fw.append(NL + "}");
+        fw.append(NL);
+        
+        final StringBuffer message = new StringBuffer(200);
+        message.append("Process ID=").append(activeProcessId);
+        message.append(" process IDs=").append(processIds.toString());
+        message.append(" attached=").append(attachedProcessIds.toString());
+        LOGGER.info(message);
+        
+        return fw.toString();
+    }
+    
+    private static void appendList(final StringBuffer fw, final List<?> processIds) {
+        boolean isFirst = true;
+        for (final Object pid : processIds) {
+            fw.append(isFirst ? "    " : ",");
+            isFirst = false;
+            fw.append(pid);
+        }
+    }
+    
+    private static boolean isValidProcessId(final String value) {
         try {
-            MonitoredHost local = MonitoredHost.getMonitoredHost("localhost");
-            MonitoredVm vm = local.getMonitoredVm(new VmIdentifier(String.format("//%d", pid)));
-            return MonitoredVmUtil.mainClass(vm, true);
+            Integer.valueOf(value);
+            return true;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Splits a full method name like 'java.lang.Thread.run' into package,
+     * class and method name. The result is null, if there is no package.
+     */
+    static Node createNode(final String fullMethodName) {
+        final String[] split = fullMethodName.split("\\.");
+        if (split.length > 2) {
+            final int indexOfMethodName = split.length - 1;
+            final int indexOfClassName = indexOfMethodName - 1;
+            final StringBuffer packageName = new StringBuffer(fullMethodName.length());
+            packageName.append(split[0]);
+            for (int i = 1; i < indexOfClassName; i++) {
+                packageName.append('.').append(split[i]);
+            }
+            
+            String className = split[indexOfClassName];
+            String packageString = packageName.toString();
+            final Node entry = new Node();
+            String methodName = split[indexOfMethodName];
+            entry.setMethodName(methodName);
+            entry.setClassName(className);
+            entry.setPackageName(packageString);
+            entry.setNewItem(true);
+            
+            LOGGER.debug("fullMethodName='" + fullMethodName + "'" + NL + "  packageString='" + packageString + NL + "  className='"
+                    + className + NL + "  methodName='" + methodName + "'");
+            return entry;
         }
-        catch (URISyntaxException ue){}
-        catch (MonitorException me){}
-        return "";
+        LOGGER.warn("Can't process method '" + fullMethodName + "'");
+        return null;
     }
+    
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class aggregates the call stacks into a calling context tree. Each path
+ * from the root to a tree node is the prefix of at least one call stack and
+ * each tree node counts the stacks with this prefix. The tree nodes are stored
+ * in primitive arrays, a tree node is found by the pair of parent and frame id
+ * in an IdPairTable and the id of the pair is the index of the tree node.
+ */
+public class CallingContextTree {
+    
+    /**
+     * Constants
+     */
+    public static final int ROOT = 0;
+    
+    public static final int NO_FRAME = -1;
+    
+    /**
+     * The table maps parent and frame id to the index of the child
+     */
+    private final IdPairTable children;
+    
+    /**
+     * Number of stacks which contain the path to each tree node
+     */
+    private long[] counts;
+    
+    /**
+     * Constructor
+     */
+    public CallingContextTree(final int expectedSize) {
+        children = new IdPairTable(expectedSize);
+        counts = new long[Math.max(expectedSize, 16)];
+        children.intern(NO_FRAME, NO_FRAME);
+    }
+    
+    /**
+     * Adds a stack with frame ids ordered from the called to the calling
+     * method, like in a thread dump
+     */
+    public void addStack(final int[] frameIds, final int length) {
+        int current = ROOT;
+        increment(current);
+        for (int i = length - 1; i >= 0; i--) {
+            current = children.intern(current, frameIds[i]);
+            increment(current);
+        }
+    }
+    
+    public int size() {
+        return children.size();
+    }
+    
+    public void clear() {
+        Arrays.fill(counts, 0, children.size(), 0L);
+        children.clear();
+        children.intern(NO_FRAME, NO_FRAME);
+    }
+    
+    /**
+     * Renumbers the frames after the eviction of nodes from the model, the
+     * subtrees of evicted frames are dropped. A parent has always a lower
+     * index than its children, so one pass in index order is enough.
+     */
+    public void remap(final int[] newFrameIds) {
+        final int[] parents = children.copyFirsts();
+        final int[] frames = children.copySeconds();
+        final long[] oldCounts = Arrays.copyOf(counts, parents.length);
+        final int[] newIndexes = new int[parents.length];
+        clear();
+        newIndexes[ROOT] = ROOT;
+        counts[ROOT] = oldCounts[ROOT];
+        for (int index = ROOT + 1; index < parents.length; index++) {
+            final int parent = newIndexes[parents[index]];
+            final int frame = (frames[index] < newFrameIds.length) ? newFrameIds[frames[index]] : NO_FRAME;
+            if (IdPairTable.NO_ID == parent || NO_FRAME == frame) {
+                newIndexes[index] = IdPairTable.NO_ID;
+            } else {
+                newIndexes[index] = children.intern(parent, frame);
+                increment(newIndexes[index]);
+                counts[newIndexes[index]] = oldCounts[index];
+            }
+        }
+    }
+    
+    /**
+     * Drops the tree nodes with the lowest counts, until at most maxSize tree
+     * nodes are left. A child has never a higher count than its parent, so
+     * the remaining tree nodes are still connected to the root.
+     */
+    public void prune(final int maxSize) {
+        final int size = children.size();
+        if (size <= maxSize) {
+            return;
+        }
+        
+        // All tree nodes with a count above the limit are kept, at least
+        // size - maxSize tree nodes have a count equal or below it
+        final long[] sortedCounts = Arrays.copyOf(counts, size);
+        Arrays.sort(sortedCounts);
+        final long limit = sortedCounts[size - Math.max(1, maxSize) - 1];
+        
+        final int[] parents = children.copyFirsts();
+        final int[] frames = children.copySeconds();
+        final long[] oldCounts = Arrays.copyOf(counts, size);
+        final int[] newIndexes = new int[size];
+        clear();
+        newIndexes[ROOT] = ROOT;
+        counts[ROOT] = oldCounts[ROOT];
+        for (int index = ROOT + 1; index < size; index++) {
+            final int parent = newIndexes[parents[index]];
+            if (IdPairTable.NO_ID == parent || oldCounts[index] <= limit) {
+                newIndexes[index] = IdPairTable.NO_ID;
+            } else {
+                newIndexes[index] = children.intern(parent, frames[index]);
+                increment(newIndexes[index]);
+                counts[newIndexes[index]] = oldCounts[index];
+            }
+        }
+    }
+    
+    /**
+     * Creates an immutable copy of the tree
+     */
+    public CallingContextTreeSnapshot takeSnapshot(final GraphNode[] nodes) {
+        return new CallingContextTreeSnapshot(children.copyFirsts(), children.copySeconds(),
+                Arrays.copyOf(counts, children.size()), nodes);
+    }
+    
+    private void increment(final int index) {
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+        counts[index]++;
+    }
+    
+}
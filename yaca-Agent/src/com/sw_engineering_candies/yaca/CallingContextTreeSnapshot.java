@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The class is an immutable copy of the calling context tree, which can be
+ * serialized without the lock of the model.
+ */
+public final class CallingContextTreeSnapshot {
+    
+    /**
+     * Constants
+     */
+    private static final String NL = System.getProperty("line.separator");
+    
+    private static final int NO_CHILD = -1;
+    
+    /**
+     * Attributes
+     */
+    private final int[] parents;
+    
+    private final int[] frameIds;
+    
+    private final long[] counts;
+    
+    private final GraphNode[] nodes;
+    
+    /**
+     * The children of each tree node are a linked list
+     */
+    private final int[] firstChild;
+    
+    private final int[] nextSibling;
+    
+    /**
+     * Constructor, the arrays are owned by the snapshot after the call
+     */
+    public CallingContextTreeSnapshot(final int[] parents, final int[] frameIds, final long[] counts, final GraphNode[] nodes) {
+        this.parents = parents;
+        this.frameIds = frameIds;
+        this.counts = counts;
+        this.nodes = nodes;
+        
+        // Children are linked in reverse order, so they appear in the order of
+        // their creation
+        firstChild = new int[parents.length];
+        nextSibling = new int[parents.length];
+        Arrays.fill(firstChild, NO_CHILD);
+        for (int index = parents.length - 1; index > CallingContextTree.ROOT; index--) {
+            nextSibling[index] = firstChild[parents[index]];
+            firstChild[parents[index]] = index;
+        }
+    }
+    
+    public int size() {
+        return parents.length;
+    }
+    
+    /**
+     * Writes the tree without the children below maxDepth and without tree
+     * nodes with less than minCount stacks
+     */
+    public void writeJSON(final JsonStreamWriter fw, final int maxDepth, final long minCount) throws IOException {
+        fw.append("{").append(NL);
+        fw.append("\"size\":").append(size()).append(",").append(NL);
+        fw.append("\"tree\":");
+        writeTree(fw, maxDepth, minCount);
+        fw.append(NL).append("}").append(NL);
+    }
+    
+    /**
+     * Walks the tree with the links to parent, first child and next sibling
+     * instead of recursion, so neither deep stacks nor a large maxDepth can
+     * overflow the stack of the thread
+     */
+    private void writeTree(final JsonStreamWriter fw, final int maxDepth, final long minCount) throws IOException {
+        int index = CallingContextTree.ROOT;
+        int depth = 0;
+        writeNodeStart(fw, index);
+        while (true) {
+            
+            // Descend to the first child
+            final int child = (depth < maxDepth) ? getVisible(firstChild[index], minCount) : NO_CHILD;
+            if (NO_CHILD != child) {
+                fw.append(NL);
+                writeNodeStart(fw, child);
+                index = child;
+                depth++;
+                continue;
+            }
+            
+            // Close the tree node and continue with the next sibling of it or
+            // of the nearest ancestor
+            while (true) {
+                fw.append("]}");
+                if (CallingContextTree.ROOT == index) {
+                    return;
+                }
+                final int sibling = getVisible(nextSibling[index], minCount);
+                if (NO_CHILD != sibling) {
+                    fw.append(",").append(NL);
+                    writeNodeStart(fw, sibling);
+                    index = sibling;
+                    break;
+                }
+                index = parents[index];
+                depth--;
+            }
+        }
+    }
+    
+    /**
+     * Returns the first tree node of the siblings with at least minCount
+     * stacks, or NO_CHILD
+     */
+    private int getVisible(final int first, final long minCount) {
+        int index = first;
+        while (NO_CHILD != index && counts[index] < minCount) {
+            index = nextSibling[index];
+        }
+        return index;
+    }
+    
+    private void writeNodeStart(final JsonStreamWriter fw, final int index) throws IOException {
+        final int frameId = frameIds[index];
+        final boolean isKnownFrame = frameId >= 0 && frameId < nodes.length;
+        fw.append("{\"nodeId\":").append(frameId);
+        fw.append(", \"name\":\"").append(isKnownFrame ? nodes[frameId].getName() : "root");
+        fw.append("\", \"count\":").append(counts[index]);
+        fw.append(", \"children\":[");
+    }
+    
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The class writes the HTTP/1.1 chunked transfer encoding, so a response can be
+ * sent before its length is known. Closing the stream writes the last chunk,
+ * but doesn't close the underlying stream.
+ */
+public class ChunkedOutputStream extends OutputStream {
+    
+    /**
+     * Constants
+     */
+    private static final byte[] CRLF = { '\r', '\n' };
+    
+    private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+    
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    
+    /**
+     * Attributes
+     */
+    private final OutputStream out;
+    
+    private final byte[] sizeLine = new byte[10];
+    
+    private boolean closed = false;
+    
+    /**
+     * Constructor
+     */
+    public ChunkedOutputStream(final OutputStream out) {
+        this.out = out;
+    }
+    
+    @Override
+    public void write(final int value) throws IOException {
+        write(new byte[] { (byte) value }, 0, 1);
+    }
+    
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (length > 0) {
+            
+            // Chunk size as hex number followed by CRLF
+            int position = sizeLine.length - 2;
+            sizeLine[position] = '\r';
+            sizeLine[position + 1] = '\n';
+            int rest = length;
+            do {
+                sizeLine[--position] = HEX_DIGITS[rest & 0xF];
+                rest >>>= 4;
+            } while (rest > 0);
+            
+            out.write(sizeLine, position, sizeLine.length - position);
+            out.write(bytes, offset, length);
+            out.write(CRLF);
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+    
+}
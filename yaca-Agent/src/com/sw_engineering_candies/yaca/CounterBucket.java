@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class is an immutable sparse copy of the counters of one time bucket.
+ * Only the ids with a count greater than zero are stored.
+ */
+public final class CounterBucket {
+    
+    /**
+     * Attributes
+     */
+    private final long startTime;
+    
+    private final int[] ids;
+    
+    private final long[] counts;
+    
+    /**
+     * Constructor, the arrays are owned by the bucket after the call
+     */
+    public CounterBucket(final long startTime, final int[] ids, final long[] counts) {
+        this.startTime = startTime;
+        this.ids = ids;
+        this.counts = counts;
+    }
+    
+    /**
+     * Methods
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+    
+    public int size() {
+        return ids.length;
+    }
+    
+    /**
+     * Returns a copy of the bucket with the new ids, the counts of ids
+     * mapped to NO_ID are dropped
+     */
+    public CounterBucket remap(final int[] newIds) {
+        int length = 0;
+        final int[] resultIds = new int[ids.length];
+        final long[] resultCounts = new long[ids.length];
+        for (int index = 0; index < ids.length; index++) {
+            final int newId = (ids[index] < newIds.length) ? newIds[ids[index]] : SymbolTable.NO_ID;
+            if (SymbolTable.NO_ID != newId) {
+                resultIds[length] = newId;
+                resultCounts[length++] = counts[index];
+            }
+        }
+        return new CounterBucket(startTime, Arrays.copyOf(resultIds, length), Arrays.copyOf(resultCounts, length));
+    }
+    
+    /**
+     * Adds the weighted counts of the bucket to the sums, ids beyond the
+     * length of the sums are ignored
+     */
+    public void addTo(final double[] sums, final double weight) {
+        for (int index = 0; index < ids.length; index++) {
+            if (ids[index] < sums.length) {
+                sums[ids[index]] += counts[index] * weight;
+            }
+        }
+    }
+    
+}
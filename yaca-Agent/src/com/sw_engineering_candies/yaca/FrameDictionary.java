@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The class maps the full method names of stack frames to dense frame ids and
+ * holds the resolved node of each frame. The names can be looked up as byte
+ * slices of a buffer, so a known frame doesn't need any allocation. The name
+ * and node of a frame are created just the first time the frame is seen.
+ * 
+ * The verdict of the filters is cached for each frame, so a frame is matched
+ * just once with each version of the filters. Next to it the ids of the model
+ * node and its cluster node are cached, so a known frame is counted without
+ * building and hashing its names again.
+ */
+public class FrameDictionary {
+    
+    /**
+     * Constants
+     */
+    public static final int NO_ID = ByteSliceTable.NO_ID;
+    
+    public static final byte VERDICT_UNKNOWN = 0;
+    
+    public static final byte VERDICT_ACCEPTED = 1;
+    
+    public static final byte VERDICT_REJECTED = 2;
+    
+    private static final int EXPECTED_NAME_LENGTH = 64;
+    
+    /**
+     * Frame ids by UTF-8 bytes of the full method names
+     */
+    private final ByteSliceTable frameIds;
+    
+    /**
+     * Reverse arrays to find name and node of a frame id
+     */
+    private String[] names;
+    
+    private Node[] nodes;
+    
+    /**
+     * Cached verdicts of the filters with the version verdictsVersion
+     */
+    private byte[] verdicts;
+    
+    private int verdictsVersion = 0;
+    
+    /**
+     * Cached ids of model node and cluster node with the generation of the
+     * model ids modelIdsGeneration
+     */
+    private int[] modelNodeIds;
+    
+    private int[] modelClusterNodeIds;
+    
+    private long modelIdsGeneration = 0L;
+    
+    /**
+     * Constructor
+     */
+    public FrameDictionary(final int expectedSize) {
+        frameIds = new ByteSliceTable(expectedSize, EXPECTED_NAME_LENGTH);
+        final int length = Math.max(expectedSize, 16);
+        names = new String[length];
+        nodes = new Node[length];
+        verdicts = new byte[length];
+        modelNodeIds = new int[length];
+        modelClusterNodeIds = new int[length];
+        Arrays.fill(modelNodeIds, NO_ID);
+    }
+    
+    /**
+     * Returns the id of the name in the UTF-8 bytes and assigns the next free
+     * id if the name is unknown
+     */
+    public int intern(final byte[] bytes, final int offset, final int length) {
+        final int id = frameIds.intern(bytes, offset, length);
+        if (id == names.length) {
+            final int capacity = id * 2;
+            names = Arrays.copyOf(names, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+            verdicts = Arrays.copyOf(verdicts, capacity);
+            modelNodeIds = Arrays.copyOf(modelNodeIds, capacity);
+            modelClusterNodeIds = Arrays.copyOf(modelClusterNodeIds, capacity);
+            Arrays.fill(modelNodeIds, id, capacity, NO_ID);
+        }
+        if (null == names[id]) {
+            names[id] = new String(bytes, offset, length, StandardCharsets.UTF_8);
+            nodes[id] = CallStackAnalyzer.createNode(names[id]);
+        }
+        return id;
+    }
+    
+    /**
+     * Returns the id of the name and assigns the next free id if the name is
+     * unknown
+     */
+    public int intern(final String name) {
+        final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return intern(bytes, 0, bytes.length);
+    }
+    
+    public String getName(final int id) {
+        return names[id];
+    }
+    
+    /**
+     * Returns the node of the frame, or null if the name can't be split in
+     * package, class and method name
+     */
+    public Node getNode(final int id) {
+        return nodes[id];
+    }
+    
+    /**
+     * Returns the cached verdict for the given version of the filters, all
+     * verdicts of an other version are dropped
+     */
+    public byte getVerdict(final int id, final int filterVersion) {
+        if (filterVersion != verdictsVersion) {
+            Arrays.fill(verdicts, VERDICT_UNKNOWN);
+            verdictsVersion = filterVersion;
+        }
+        return verdicts[id];
+    }
+    
+    public void setVerdict(final int id, final byte verdict) {
+        verdicts[id] = verdict;
+    }
+    
+    /**
+     * Returns the cached id of the model node for the given generation of the
+     * model ids, or NO_ID. All ids of an other generation are dropped.
+     */
+    public int getModelNodeId(final int id, final long generation) {
+        if (generation != modelIdsGeneration) {
+            Arrays.fill(modelNodeIds, NO_ID);
+            modelIdsGeneration = generation;
+        }
+        return modelNodeIds[id];
+    }
+    
+    /**
+     * Returns the cached id of the cluster node, it is valid if the id of the
+     * model node is
+     */
+    public int getModelClusterNodeId(final int id) {
+        return modelClusterNodeIds[id];
+    }
+    
+    public void setModelNodeIds(final int id, final int nodeId, final int clusterNodeId) {
+        modelNodeIds[id] = nodeId;
+        modelClusterNodeIds[id] = clusterNodeId;
+    }
+    
+    public int size() {
+        return frameIds.size();
+    }
+    
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+/**
+ * The class is the record of a link in the call graph. A link points from the
+ * calling method to the called method, or from a method to its cluster node.
+ * The counts are stored by id in the model.
+ */
+public final class GraphLink {
+    
+    /**
+     * Attributes
+     */
+    private final int id;
+    
+    private final int sourceId;
+    
+    private final int targetId;
+    
+    private final boolean clusterLink;
+    
+    /**
+     * Constructor
+     */
+    public GraphLink(final int id, final int sourceId, final int targetId, final boolean clusterLink) {
+        this.id = id;
+        this.sourceId = sourceId;
+        this.targetId = targetId;
+        this.clusterLink = clusterLink;
+    }
+    
+    /**
+     * Methods
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public int getSourceId() {
+        return sourceId;
+    }
+    
+    public int getTargetId() {
+        return targetId;
+    }
+    
+    public boolean isClusterLink() {
+        return clusterLink;
+    }
+    
+    @Override
+    public String toString() {
+        return "GraphLink [" + id + ", " + sourceId + ", " + targetId + ", " + clusterLink + "]";
+    }
+    
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+/**
+ * The class is the record of a node in the call graph. A node is either a
+ * method or a cluster node, which stands for the class of the methods. The
+ * counts are stored by id in the model.
+ */
+public final class GraphNode {
+    
+    /**
+     * Attributes
+     */
+    private final int id;
+    
+    private final int clusterId;
+    
+    private final String name;
+    
+    private final String alias;
+    
+    private final boolean clusterNode;
+    
+    /**
+     * Constructor
+     */
+    public GraphNode(final int id, final int clusterId, final String name, final String alias, final boolean clusterNode) {
+        this.id = id;
+        this.clusterId = clusterId;
+        this.name = name;
+        this.alias = alias;
+        this.clusterNode = clusterNode;
+    }
+    
+    /**
+     * Methods
+     */
+    public int getId() {
+        return id;
+    }
+    
+    public int getClusterId() {
+        return clusterId;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getAlias() {
+        return alias;
+    }
+    
+    public boolean isClusterNode() {
+        return clusterNode;
+    }
+    
+    @Override
+    public String toString() {
+        return "GraphNode [" + id + ", " + clusterId + ", " + name + ", " + alias + ", " + clusterNode + "]";
+    }
+    
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class maps a pair of int ids to a dense int id, e.g. the source and
+ * target node of a link. The pairs are packed into a long and stored in an
+ * open addressing hash table with linear probing, so no key objects are
+ * created for a lookup.
+ */
+public class IdPairTable {
+    
+    /**
+     * Constants
+     */
+    public static final int NO_ID = -1;
+    
+    private static final int MINIMUM_CAPACITY = 16;
+    
+    /**
+     * Hash table with packed pairs and the related ids, an empty slot has the
+     * id NO_ID
+     */
+    private long[] slotKeys;
+    
+    private int[] slotIds;
+    
+    /**
+     * Reverse arrays to find the pair of an id
+     */
+    private int[] firsts;
+    
+    private int[] seconds;
+    
+    /**
+     * Number of assigned ids
+     */
+    private int size = 0;
+    
+    /**
+     * Constructor
+     */
+    public IdPairTable(final int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        slotKeys = new long[capacity];
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, NO_ID);
+        firsts = new int[Math.max(expectedSize, MINIMUM_CAPACITY)];
+        seconds = new int[firsts.length];
+    }
+    
+    /**
+     * Returns the id of the pair and assigns the next free id if the pair is
+     * unknown
+     */
+    public int intern(final int first, final int second) {
+        final long key = pack(first, second);
+        final int mask = slotKeys.length - 1;
+        int slot = indexFor(key, mask);
+        int current;
+        while ((current = slotIds[slot]) != NO_ID) {
+            if (slotKeys[slot] == key) {
+                return current;
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        final int id = size;
+        slotKeys[slot] = key;
+        slotIds[slot] = id;
+        if (id == firsts.length) {
+            firsts = Arrays.copyOf(firsts, id * 2);
+            seconds = Arrays.copyOf(seconds, id * 2);
+        }
+        firsts[id] = first;
+        seconds[id] = second;
+        size++;
+        
+        // Keep load factor below 0.5 to have short probe sequences
+        if (size * 2 > slotKeys.length) {
+            rehash(slotKeys.length * 2);
+        }
+        return id;
+    }
+    
+    /**
+     * Returns the first ids of all pairs ordered by the id of the pair
+     */
+    public int[] copyFirsts() {
+        return Arrays.copyOf(firsts, size);
+    }
+    
+    /**
+     * Returns the second ids of all pairs ordered by the id of the pair
+     */
+    public int[] copySeconds() {
+        return Arrays.copyOf(seconds, size);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void clear() {
+        Arrays.fill(slotIds, NO_ID);
+        size = 0;
+    }
+    
+    private void rehash(final int capacity) {
+        final long[] oldKeys = slotKeys;
+        final int[] oldIds = slotIds;
+        slotKeys = new long[capacity];
+        slotIds = new int[capacity];
+        Arrays.fill(slotIds, NO_ID);
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != NO_ID) {
+                int slot = indexFor(oldKeys[i], mask);
+                while (slotIds[slot] != NO_ID) {
+                    slot = (slot + 1) & mask;
+                }
+                slotKeys[slot] = oldKeys[i];
+                slotIds[slot] = oldIds[i];
+            }
+        }
+    }
+    
+    private static long pack(final int first, final int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+    
+    private static int indexFor(final long key, final int mask) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+    
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The class encodes JSON text as UTF-8 into a fixed byte buffer and writes the
+ * buffer to the output stream each time it is full. So the heap needed for a
+ * response doesn't grow with the size of the model.
+ */
+public class JsonStreamWriter {
+    
+    /**
+     * Attributes
+     */
+    private final OutputStream out;
+    
+    private final byte[] buffer;
+    
+    private int position = 0;
+    
+    /**
+     * Constructor, the buffer can be reused after flush
+     */
+    public JsonStreamWriter(final OutputStream out, final byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+    
+    public JsonStreamWriter append(final String value) throws IOException {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            append(value.charAt(i));
+        }
+        return this;
+    }
+    
+    public JsonStreamWriter append(final char value) throws IOException {
+        if (position + 4 > buffer.length) {
+            writeBuffer();
+        }
+        if (value < 0x80) {
+            buffer[position++] = (byte) value;
+        } else if (value < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (value >> 6));
+            buffer[position++] = (byte) (0x80 | (value & 0x3F));
+        } else if (Character.isSurrogate(value)) {
+            // Method names with supplementary characters are rare, so the
+            // surrogates are replaced
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (value >> 12));
+            buffer[position++] = (byte) (0x80 | ((value >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (value & 0x3F));
+        }
+        return this;
+    }
+    
+    public JsonStreamWriter append(final long value) throws IOException {
+        if (position + 20 > buffer.length) {
+            writeBuffer();
+        }
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        long rest = value;
+        if (rest < 0) {
+            buffer[position++] = '-';
+            rest = -rest;
+        }
+        
+        // Write digits in reverse order and turn them around
+        final int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + (rest % 10));
+            rest /= 10;
+        } while (rest > 0);
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            final byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+        return this;
+    }
+    
+    public JsonStreamWriter append(final boolean value) throws IOException {
+        return append(value ? "true" : "false");
+    }
+    
+    /**
+     * Writes the content of the buffer to the output stream
+     */
+    public void flush() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+    
+    private void writeBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+    
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The class is a compiled white or black list filter for the full method
+ * names. It is compiled once, when the filter is set. Most filters are
+ * literal alternations like '(eclipse|zeroturnaround)' or '((y|Y)aca|Sort)',
+ * they are expanded to their literals and matched with an Aho-Corasick
+ * automaton. All other filters are matched as regular expression.
+ */
+public final class MethodFilter {
+    
+    /**
+     * Constants
+     */
+    public static final MethodFilter EMPTY = new MethodFilter("", null, null);
+    
+    private static final int MAXIMUM_NUMBER_OF_LITERALS = 1024;
+    
+    private static final String META_CHARACTERS = ".*+?[]{}^$";
+    
+    /**
+     * Attributes
+     */
+    private final String expression;
+    
+    private final AhoCorasickMatcher literalMatcher;
+    
+    private final Pattern pattern;
+    
+    /**
+     * Constructor
+     */
+    private MethodFilter(final String expression, final AhoCorasickMatcher literalMatcher, final Pattern pattern) {
+        this.expression = expression;
+        this.literalMatcher = literalMatcher;
+        this.pattern = pattern;
+    }
+    
+    /**
+     * Compiles the regular expression of the filter, it throws a
+     * PatternSyntaxException for an invalid expression
+     */
+    public static MethodFilter compile(final String expression) {
+        if (expression.isEmpty()) {
+            return EMPTY;
+        }
+        
+        // Validate the expression in any case
+        final Pattern pattern = Pattern.compile(expression);
+        final List<String> literals = parseLiterals(expression);
+        if (null != literals) {
+            return new MethodFilter(expression, new AhoCorasickMatcher(literals), null);
+        }
+        return new MethodFilter(expression, null, pattern);
+    }
+    
+    public boolean isEmpty() {
+        return expression.isEmpty();
+    }
+    
+    /**
+     * Returns true if the filter is found in the name, like Matcher.find
+     */
+    public boolean find(final String name) {
+        if (null != literalMatcher) {
+            return literalMatcher.find(name);
+        }
+        return null != pattern && pattern.matcher(name).find();
+    }
+    
+    @Override
+    public String toString() {
+        return expression;
+    }
+    
+    /**
+     * Expands the expression to its literals, or returns null if the
+     * expression contains anything else than literal characters, escaped
+     * characters and groups of alternatives
+     */
+    private static List<String> parseLiterals(final String expression) {
+        try {
+            final int[] position = { 0 };
+            final Set<String> literals = parseAlternatives(expression, position);
+            if (position[0] != expression.length()) {
+                return null;
+            }
+            return new ArrayList<String>(literals);
+        } catch (final PatternSyntaxException e) {
+            return null;
+        }
+    }
+    
+    private static Set<String> parseAlternatives(final String expression, final int[] position) {
+        final Set<String> result = new LinkedHashSet<String>();
+        result.addAll(parseSequence(expression, position));
+        while (position[0] < expression.length() && expression.charAt(position[0]) == '|') {
+            position[0]++;
+            result.addAll(parseSequence(expression, position));
+            checkSize(result.size());
+        }
+        return result;
+    }
+    
+    private static Set<String> parseSequence(final String expression, final int[] position) {
+        Set<String> result = new LinkedHashSet<String>();
+        result.add("");
+        while (position[0] < expression.length()) {
+            final char c = expression.charAt(position[0]);
+            final Set<String> item;
+            if (c == '|' || c == ')') {
+                break;
+            } else if (c == '(') {
+                position[0]++;
+                if (expression.startsWith("?:", position[0])) {
+                    position[0] += 2;
+                } else if (expression.startsWith("?", position[0])) {
+                    throw new PatternSyntaxException("Unsupported group", expression, position[0]);
+                }
+                item = parseAlternatives(expression, position);
+                if (position[0] >= expression.length() || expression.charAt(position[0]) != ')') {
+                    throw new PatternSyntaxException("Missing )", expression, position[0]);
+                }
+                position[0]++;
+            } else if (c == '\\') {
+                if (position[0] + 1 >= expression.length() || Character.isLetterOrDigit(expression.charAt(position[0] + 1))) {
+                    throw new PatternSyntaxException("Unsupported escape", expression, position[0]);
+                }
+                item = singleton(String.valueOf(expression.charAt(position[0] + 1)));
+                position[0] += 2;
+            } else if (META_CHARACTERS.indexOf(c) >= 0) {
+                throw new PatternSyntaxException("Unsupported meta character", expression, position[0]);
+            } else {
+                item = singleton(String.valueOf(c));
+                position[0]++;
+            }
+            
+            // Concatenate all combinations
+            checkSize(result.size() * item.size());
+            final Set<String> combinations = new LinkedHashSet<String>();
+            for (final String prefix : result) {
+                for (final String suffix : item) {
+                    combinations.add(prefix + suffix);
+                }
+            }
+            result = combinations;
+        }
+        return result;
+    }
+    
+    private static Set<String> singleton(final String value) {
+        final Set<String> result = new LinkedHashSet<String>();
+        result.add(value);
+        return result;
+    }
+    
+    private static void checkSize(final int size) {
+        if (size > MAXIMUM_NUMBER_OF_LITERALS) {
+            throw new PatternSyntaxException("Too many literals", "", -1);
+        }
+    }
+    
+}
@@ -31,14 +31,13 @@
 
 package com.sw_engineering_candies.yaca;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -63,426 +62,568 @@ public class Model {
     private static final int EXPECTED_NUMBER_OF_LINKS = 10000;
     private static final int EXPECTED_NUMBER_OF_CLUSTERS = 1000;
     private static final int EXPECTED_NUMBER_OF_NODES = 10000;
+    private static final int EXPECTED_NUMBER_OF_TREE_NODES = 100000;
     
     /**
-     * The map stores all created nodes
+     * The budget of the model, e.g. -Dyaca.maxNodes=20000. If it is exceeded,
+     * the least recently sampled methods and links are evicted until the
+     * model is reduced to the target percentage of the budget, so an eviction
+     * is rare.
      */
-    private final Map<String, String> nodes = new HashMap<String, String>(EXPECTED_NUMBER_OF_NODES);
+    private static final int MAXIMUM_NUMBER_OF_NODES = Integer.getInteger("yaca.maxNodes", 20000);
+    private static final int MAXIMUM_NUMBER_OF_LINKS = Integer.getInteger("yaca.maxLinks", 50000);
+    private static final int EVICTION_TARGET_PERCENT = 80;
     
     /**
-     * The list nodeIds is used to find the correct ids for the creation of the
-     * JSON file
+     * Source of the generations of the model ids, they are unique over all
+     * models
      */
-    private final List<String> nodeIds = new Vector<String>(EXPECTED_NUMBER_OF_NODES);
+    private static final AtomicLong ID_GENERATIONS = new AtomicLong();
     
     /**
-     * The list clusterIds is used to find the correct ids for the creation of
-     * the JSON file
+     * The budget of the calling context tree, e.g. -Dyaca.maxTreeNodes=500000.
+     * If it is exceeded, the tree nodes with the lowest counts are dropped
+     * until the tree is reduced to the target percentage of the budget.
      */
-    private final List<String> clusterIds = new Vector<String>(EXPECTED_NUMBER_OF_CLUSTERS);
+    private static final int MAXIMUM_NUMBER_OF_TREE_NODES = Integer.getInteger("yaca.maxTreeNodes", 200000);
     
     /**
-     * The list clusterIds is used to find the correct ids for the creation of
-     * the JSON file
+     * The array stores all created nodes by id
      */
-    private final List<String> linkIds = new Vector<String>(EXPECTED_NUMBER_OF_LINKS);
+    private GraphNode[] nodes = new GraphNode[EXPECTED_NUMBER_OF_NODES];
     
     /**
-     * The map links all created links
+     * The symbol table nodeIds is used to find the correct ids for the
+     * creation of the JSON file
      */
-    private final Map<String, String> links = new HashMap<String, String>(EXPECTED_NUMBER_OF_LINKS);
+    private final SymbolTable nodeIds = new SymbolTable(EXPECTED_NUMBER_OF_NODES);
     
     /**
-     * The list is used to count the finding of each link
+     * The symbol table clusterIds is used to find the correct ids for the
+     * creation of the JSON file
      */
-    private final Map<String, Long> nodesCount = new HashMap<String, Long>(EXPECTED_NUMBER_OF_NODES);
+    private final SymbolTable clusterIds = new SymbolTable(EXPECTED_NUMBER_OF_CLUSTERS);
     
     /**
-     * Used to find the maximal count of a node, to scale all nodes to a
-     * reasonable range
+     * The array stores the id of the cluster node for each cluster id
      */
-    private long maximumNodeCount = 1L;
+    private int[] clusterNodeIds = new int[EXPECTED_NUMBER_OF_CLUSTERS];
     
     /**
-     * Allocate right size for StringBuffer
+     * The table linkIds is used to find the correct ids of the links by the
+     * ids of source and target node
      */
-    private int lastLength = 1000;
+    private final IdPairTable linkIds = new IdPairTable(EXPECTED_NUMBER_OF_LINKS);
+    
+    /**
+     * The array stores all created links by id
+     */
+    private GraphLink[] links = new GraphLink[EXPECTED_NUMBER_OF_LINKS];
+    
+    /**
+     * Time of the current call stack, it is used for the counters
+     */
+    private long currentTime = System.currentTimeMillis();
+    
+    /**
+     * The windowed counters are used to count the finding of each node
+     */
+    private final WindowedCounters nodesCount = new WindowedCounters(EXPECTED_NUMBER_OF_NODES, currentTime);
+    
+    /**
+     * The windowed counters are used to count the finding of each link
+     */
+    private final WindowedCounters linksCount = new WindowedCounters(EXPECTED_NUMBER_OF_LINKS, currentTime);
+    
+    /**
+     * The version of the last snapshot, it is the time of the snapshot and
+     * increases strictly. A version of an earlier run of the agent is never
+     * valid.
+     */
+    private long version = currentTime;
+    
+    /**
+     * Versions before the last reset of the model are invalid
+     */
+    private long resetVersion = version;
+    
+    /**
+     * The generation of the node ids changes with each reset and eviction,
+     * the ids cached by the frame dictionaries of an older generation are
+     * invalid
+     */
+    private long idGeneration = ID_GENERATIONS.incrementAndGet();
+    
+    /**
+     * The arrays store the time of the last change for each node and link,
+     * to find the changes since a given version
+     */
+    private final TimestampArray nodesLastChange = new TimestampArray(EXPECTED_NUMBER_OF_NODES);
+    
+    private final TimestampArray linksLastChange = new TimestampArray(EXPECTED_NUMBER_OF_LINKS);
+    
+    /**
+     * The calling context tree aggregates the complete call stacks, it is
+     * optional because it needs more memory than the call graph
+     */
+    private final CallingContextTree callingContextTree = new CallingContextTree(EXPECTED_NUMBER_OF_TREE_NODES);
+    
+    private volatile boolean isTreeEnabled = false;
+    
+    /**
+     * Node ids and cluster node ids of the current call stack
+     */
+    private int[] stackNodeIds = new int[256];
+    
+    private int[] stackClusterNodeIds = new int[256];
     
     /**
      * Id of the current active process
      */
-    private String activeProcess = "----";
+    private volatile String activeProcess = "----";
+    
+    /**
+     * This filter is used in analyzer-task, it is compiled when it is set
+     */
+    private volatile MethodFilter filterWhiteList = MethodFilter.EMPTY;
+    
+    /**
+     * This filter is used in analyzer-task, it is compiled when it is set
+     */
+    private volatile MethodFilter filterBlackList = MethodFilter.EMPTY;
+    
+    /**
+     * Pattern of the names of the sampled threads, all threads are sampled if
+     * it is null. The initial value is given by the system property
+     * yaca.threadFilter.
+     */
+    private volatile Pattern threadFilter = compileThreadFilter(System.getProperty("yaca.threadFilter", ""));
     
     /**
-     * This filter is used in analyzer-task
+     * In CPU mode just the stacks of running threads are counted, in wall
+     * clock mode the stacks of all threads
      */
-    private String filterWhiteList = "";
+    private volatile boolean isCpuMode = false;
     
     /**
-     * This filter is used in analyzer-task
+     * Effective sampling rate and overhead, it is set by the analyzer after
+     * each sample
      */
-    private String filterBlackList = "";
+    private volatile SamplingStatistics samplingStatistics = SamplingStatistics.NONE;
     
     /**
      * Is analyzer connected
      */
-    private boolean isConnected = false;
+    private volatile boolean isConnected = false;
     
-    public synchronized boolean isConnected() {
+    public boolean isConnected() {
         return isConnected;
     }
     
-    public synchronized void setConnected(boolean isConnected) {
+    public void setConnected(boolean isConnected) {
         this.isConnected = isConnected;
     }
     
+    public SamplingStatistics getSamplingStatistics() {
+        return samplingStatistics;
+    }
+    
+    public void setSamplingStatistics(final SamplingStatistics samplingStatistics) {
+        this.samplingStatistics = samplingStatistics;
+    }
+    
     /**
-     * Method updateLinks analyzes the call stack of all threads and collects
-     * the data in the class ResultData.
+     * Method append analyzes the call stack of one thread and collects the
+     * data. The frames are ordered from the called to the calling method,
+     * so each frame is linked with the next one. The node ids of the frames
+     * are cached by the frame dictionary, so just new frames are resolved by
+     * their names.
      */
-    public synchronized void append(final List<Node> entryList, final boolean countNodes, final boolean countLinks) {
-        final int maxIndex = entryList.size() - 1;
+    public synchronized void append(final FrameDictionary frames, final int[] frameIds, final int length,
+            final boolean countNodes, final boolean countLinks) {
+        final int maxIndex = length - 1;
         if (maxIndex > 0) {
+            currentTime = System.currentTimeMillis();
+            nodesCount.advance(currentTime);
+            linksCount.advance(currentTime);
+            if (length > stackNodeIds.length) {
+                stackNodeIds = new int[length * 2];
+                stackClusterNodeIds = new int[length * 2];
+            }
+            for (int i = 0; i < length; i++) {
+                int nodeId = frames.getModelNodeId(frameIds[i], idGeneration);
+                if (FrameDictionary.NO_ID == nodeId) {
+                    nodeId = addNode(frames.getNode(frameIds[i]));
+                    frames.setModelNodeIds(frameIds[i], nodeId, clusterNodeIds[nodes[nodeId].getClusterId()]);
+                }
+                stackNodeIds[i] = nodeId;
+                stackClusterNodeIds[i] = frames.getModelClusterNodeId(frameIds[i]);
+            }
             for (int i = 0; i < maxIndex; i++) {
-//              addAndLogging(entryList.get(i), entryList.get(i + 1), countNodes, countLinks);
-                add(entryList.get(i), entryList.get(i + 1), countNodes, countLinks);
+                add(i, countNodes, countLinks);
+            }
+            if (isTreeEnabled) {
+                callingContextTree.addStack(stackNodeIds, maxIndex + 1);
+                if (callingContextTree.size() > MAXIMUM_NUMBER_OF_TREE_NODES) {
+                    callingContextTree.prune(MAXIMUM_NUMBER_OF_TREE_NODES * EVICTION_TARGET_PERCENT / 100);
+                    LOGGER.info("Pruned calling context tree to " + callingContextTree.size() + " tree nodes");
+                }
+            }
+            if (nodeIds.size() > MAXIMUM_NUMBER_OF_NODES || linkIds.size() > MAXIMUM_NUMBER_OF_LINKS) {
+                evictColdEntries();
             }
         }
     }
     
-    public synchronized void setActiveProcess(String processId) {
+    /**
+     * Copies the filters and modes of the other model, e.g. a new process
+     * inherits the settings of the active process
+     */
+    public void copySettings(final Model other) {
+        this.filterWhiteList = other.filterWhiteList;
+        this.filterBlackList = other.filterBlackList;
+        this.threadFilter = other.threadFilter;
+        this.isCpuMode = other.isCpuMode;
+        this.isTreeEnabled = other.isTreeEnabled;
+    }
+    
+    public void setActiveProcess(String processId) {
         this.activeProcess = processId;
     }
     
     public synchronized void reset() {
-        resetCouters();
-        nodes.clear();
+        Arrays.fill(nodes, 0, nodeIds.size(), null);
         nodeIds.clear();
         clusterIds.clear();
+        Arrays.fill(links, 0, linkIds.size(), null);
         linkIds.clear();
-        links.clear();
         nodesCount.clear();
+        linksCount.clear();
+        nodesLastChange.clear();
+        linksLastChange.clear();
+        callingContextTree.clear();
+        resetVersion = version + 1;
+        idGeneration = ID_GENERATIONS.incrementAndGet();
         LOGGER.info("Reset counters and clear model");
     }
     
-    public synchronized String getJSONPModel() {
-        
-        final StringBuffer fw = new StringBuffer(lastLength + 1000);
-        
-        final List<String> nodeskeys = new Vector<String>();
-        nodeskeys.addAll(nodes.keySet());
+    /**
+     * Creates an immutable view of the counters in the given window, or with
+     * exponential decay of all retained counters if decayMillis is greater
+     * than zero. Reading doesn't change the counters, so clients with
+     * different windows don't affect each other. Only the arrays are copied
+     * while the lock is held. The snapshot contains just the changes since
+     * the given version, if this version is valid. Otherwise, e.g. after a
+     * reset of the model, it contains the full model.
+     */
+    public synchronized ModelSnapshot takeSnapshot(final long since, final long windowMillis, final long decayMillis) {
+        final long time = System.currentTimeMillis();
+        nodesCount.advance(time);
+        linksCount.advance(time);
         
-        fw.append("{" + NL);
+        final long window = (decayMillis > 0L) ? WindowedCounters.MAXIMUM_WINDOW_MILLIS
+                : Math.max(WindowedCounters.BUCKET_MILLIS, Math.min(windowMillis, WindowedCounters.MAXIMUM_WINDOW_MILLIS));
+        final GraphNode[] nodesCopy = Arrays.copyOf(nodes, nodeIds.size());
+        final GraphLink[] linksCopy = Arrays.copyOf(links, linkIds.size());
+        final CounterBucket[] nodesBuckets = nodesCount.getBuckets(window);
+        final CounterBucket[] linksBuckets = linksCount.getBuckets(window);
         
-        fw.append("\"nodes\":[");
-        fw.append(NL);
-        boolean isFrist = true;
-        for (int index = 0; index < nodeIds.size(); index++) {
-            final String key = nodeIds.get(index);
-            if (nodes.containsKey(key)) {
-                fw.append((isFrist ? "" : "," + NL) + "");
-                isFrist = false;
-                long nodeActivity = (long) ((double) nodesCount.get(key) * 1000.0f) / maximumNodeCount;
-                fw.append(String.format(Locale.ENGLISH, nodes.get(key), nodeActivity));
-            }
+        final long lastVersion = version;
+        version = Math.max(time, version + 1);
+        if (since >= resetVersion && since <= lastVersion) {
+            // All counted in the window of the client's version may be changed
+            final long changedSince = WindowedCounters.getWindowStartTime(since, window);
+            return new ModelSnapshot(nodesCopy, linksCopy, nodesBuckets, linksBuckets, clusterIds.size(), version, window,
+                    decayMillis, samplingStatistics, changedSince, //
+                    nodesLastChange.copyOf(nodesCopy.length), //
+                    linksLastChange.copyOf(linksCopy.length));
         }
-        fw.append(NL + "],");
-        fw.append(NL);
+        return new ModelSnapshot(nodesCopy, linksCopy, nodesBuckets, linksBuckets, clusterIds.size(), version, window,
+                decayMillis, samplingStatistics);
+    }
+    
+    /**
+     * The method doesn't hold the lock of the model during serialization, so
+     * polling clients don't stall the analyzer
+     */
+    public void writeJSONPModel(final JsonStreamWriter fw, final long since, final long windowMillis, final long decayMillis)
+            throws IOException {
         
-        fw.append("\"links\":[");
-        fw.append(NL);
-        isFrist = true;
-        for (final String key : linkIds) {
-            if (links.containsKey(key)) {
-                fw.append((isFrist ? "" : "," + NL) + "");
-                isFrist = false;
-                fw.append(links.get(key));
-            }
-        }
-        fw.append(NL + "]}");
-        fw.append(NL);
+        final ModelSnapshot snapshot = takeSnapshot(since, windowMillis, decayMillis);
+        snapshot.writeJSON(fw);
+        logSnapshot(snapshot);
+    }
+    
+    /**
+     * Same as writeJSONPModel, but in the compact binary format. The client
+     * has already the names of the first known nodes.
+     */
+    public void writeBinaryModel(final BinaryStreamWriter bw, final long since, final long windowMillis,
+            final long decayMillis, final int knownNodes) throws IOException {
         
+        final ModelSnapshot snapshot = takeSnapshot(since, windowMillis, decayMillis);
+        snapshot.writeBinary(bw, knownNodes);
+        logSnapshot(snapshot);
+    }
+    
+    private void logSnapshot(final ModelSnapshot snapshot) {
         final StringBuffer message = new StringBuffer(200);
         message.append("Process ID=").append(activeProcess);
-        message.append(" clusters=").append(clusterIds.size());
-        message.append(" nodes=").append(nodeIds.size());
-        message.append(" links=").append(links.size());
-        message.append(" maximumNodeCount=").append(maximumNodeCount);
+        message.append(" clusters=").append(snapshot.getNumberOfClusters());
+        message.append(" nodes=").append(snapshot.getNumberOfNodes());
+        message.append(" links=").append(snapshot.getNumberOfLinks());
+        message.append(" maximumNodeCount=").append(snapshot.getMaximumNodeCount());
+        message.append(" version=").append(snapshot.getVersion());
+        message.append(" full=").append(snapshot.isFull());
         message.append(" connected=" + isConnected);
         LOGGER.info(message);
-        
-        resetCouters();
-        lastLength = fw.length();
-        return fw.toString();
     }
     
-    public synchronized String getJSONPVM() {
-        
-        final StringBuffer fw = new StringBuffer(1000);
-        fw.append("{" + NL);
-        List<Integer> processIDs = CallStackAnalyzer.allVirtualMachines;
-        fw.append("\"process_id_available\":[");
-        fw.append(NL);
-        boolean isFrist = true;
-        for (int index = 0; index < processIDs.size(); index++) {
-            final String pid = processIDs.get(index).toString();
-            fw.append((isFrist ? "    " : ",") + "");
-            isFrist = false;
-            fw.append(pid);
-//          fw.append(pid + ":" + CallStackAnalyzer.getMainClassById(pid));
+    public boolean isTreeEnabled() {
+        return isTreeEnabled;
+    }
+    
+    public synchronized void setTreeEnabled(boolean isTreeEnabled) {
+        LOGGER.info("Set treeEnabled=" + isTreeEnabled);
+        if (!isTreeEnabled) {
+            callingContextTree.clear();
         }
-        fw.append(NL + "],");
-        fw.append(NL);
-        fw.append("\"process_id_active\":\"" + this.activeProcess + "\"" + NL);
-        fw.append(NL + "}");
-        fw.append(NL);
+        this.isTreeEnabled = isTreeEnabled;
+    }
+    
+    /**
+     * The tree is copied under the lock of the model and serialized without
+     * it
+     */
+    public void writeJSONTree(final JsonStreamWriter fw, final int maxDepth, final long minCount) throws IOException {
         
-        final StringBuffer message = new StringBuffer(200);
-        message.append("Process ID=").append(activeProcess);
-        message.append(" process IDs=").append(processIDs.toString());
-        LOGGER.info(message);
+        final CallingContextTreeSnapshot snapshot;
+        synchronized (this) {
+            snapshot = callingContextTree.takeSnapshot(Arrays.copyOf(nodes, nodeIds.size()));
+        }
+        snapshot.writeJSON(fw, maxDepth, minCount);
         
-        return fw.toString();
+        LOGGER.info("Process ID=" + activeProcess + " tree nodes=" + snapshot.size() + " treeEnabled=" + isTreeEnabled);
     }
-
+    
     /**
-     * a little changed method for logging
-     * @param targetEntry
-     * @param sourceEntry
-     * @param countNodes
-     * @param countLinks
-     * 
-     * @author windy at 2018.03.10.SAT.AM 11:20
-     */
-    static String LOG_LEBEL   = "ALL";
-    static String tab1        = "\t";
-    static String existPrt    = tab1 + tab1 + "%s exists. key=[%s]";
-    static String existNodPrt = tab1 + tab1 + "nodes.n%s exists.";
-    static String existLnkPrt = tab1 + tab1 + "links.ln%s exists.";
-
-    static boolean cflg = true;
-    static String TClsPrt     = "TCluster_%d. tgt-cluster.key =%s";
-    static String SClsPrt     = "SCluster_%d. src-cluster.key =%s";
-    static String nodePrt     = tab1 + tab1 + "nodes.n%d =%s";
-    
-    static boolean nflg = true;
-    static String TNodePrt    = tab1 + "tgt.n%d. node =%s";
-    static String SNodePrt    = tab1 + "src.n%d. node =%s";
-    static String LnkPrt      = tab1 + "%s tgtn%d <- srcn%d, link =%s";
-//  private static String linkPrt     = tab1 + tab1 + "links.n%d =%s";
-    
-//  private boolean filtering  = true;
-//  private String[] watchLst  = {};
-//  private String[] exceptLst = {"org.eclipse", "org.zeroturnaround", "com.zeroturnaround"};
-    
-    private static void prtmsg(String formatStr, Object... args){
-        if (LOG_LEBEL.equals("ALL")){
-        LOGGER.info(String.format(formatStr, args));
+     * Counts the frame at the index and the calling frame at the next index
+     * with the links between them
+     */
+    private void add(final int index, final boolean countNodes, final boolean countLinks) {
+        final int targetId = stackNodeIds[index];
+        final int sourceId = stackNodeIds[index + 1];
+        if (countNodes) {
+            incrementNodeCount(targetId);
+            incrementNodeCount(sourceId);
         }
-    }
-    private void addAndLogging(final Node targetEntry, final Node sourceEntry, final boolean countNodes, final boolean countLinks) {
-        System.out.println();
-        
-        // Add target cluster
-        final String targetClusterKey = getClusterKey(targetEntry); // key = Node.packageName.className
-        // Add source cluster
-        final String sourceClusterKey = getClusterKey(sourceEntry);
-
-//        if(filtering){
-//            for(String filterStr : exceptLst){
-//                if(targetClusterKey.contains(filterStr)){
-//                    return;
-//                }
-//                if(sourceClusterKey.contains(filterStr)){
-//                    return;
-//                }
-//            }
-//        }
-
-        if (!clusterIds.contains(targetClusterKey)) {
-            clusterIds.add(targetClusterKey);
-            if(cflg) prtmsg(TClsPrt, clusterIds.indexOf(targetClusterKey), targetClusterKey);
-        } else if(cflg) prtmsg(existPrt, "TCluster_"+clusterIds.indexOf(targetClusterKey), targetClusterKey);
-        
-        // Add target cluster node
-        if (!nodeIds.contains(targetClusterKey)) {
-            nodeIds.add(targetClusterKey);
-            String nodeString = "\t{\"id\":" + nodeIds.indexOf(targetClusterKey) + ", \"clusterId\":" + clusterIds.indexOf(targetClusterKey)
-                    + ", \"name\":\"" + targetClusterKey + "\" , \"alias\":\"" + targetEntry.getPackageName()
-                    + "\", \"calls\": %d , \"isClusterNode\" : true }";
-            nodes.put(targetClusterKey, nodeString);
-            incrementNodeCount(targetClusterKey);
-            if(cflg) prtmsg(nodePrt, nodeIds.indexOf(targetClusterKey), nodeString);
-        } else if(cflg) prtmsg(existNodPrt, nodeIds.indexOf(targetClusterKey));
-        
-        if (!clusterIds.contains(sourceClusterKey)) {
-            clusterIds.add(sourceClusterKey);
-            if(cflg) prtmsg(SClsPrt, clusterIds.indexOf(sourceClusterKey), sourceClusterKey);
-        } else if(cflg) prtmsg(existPrt, "SCluster_"+clusterIds.indexOf(sourceClusterKey), sourceClusterKey);
-        
-        // Add source cluster node
-        if (!nodeIds.contains(sourceClusterKey)) {
-            nodeIds.add(sourceClusterKey);
-            String nodeString = "\t{\"id\":" + nodeIds.indexOf(sourceClusterKey) + ", \"clusterId\":" + clusterIds.indexOf(sourceClusterKey)
-                    + ", \"name\":\"" + sourceClusterKey + "\" , \"alias\":\"" + sourceEntry.getPackageName()
-                    + "\", \"calls\": %d , \"isClusterNode\" : true }";
-            nodes.put(sourceClusterKey, nodeString);
-            incrementNodeCount(sourceClusterKey);
-            if(cflg) prtmsg(nodePrt, nodeIds.indexOf(sourceClusterKey), nodeString);
-        } else if(cflg) prtmsg(existNodPrt, nodeIds.indexOf(sourceClusterKey));
-
-        // Add target node
-        final String targetKey = getNodeKey(targetEntry);
-        if (!nodeIds.contains(targetKey)) {
-            nodeIds.add(targetKey);
-        } else if(nflg) prtmsg(existNodPrt, nodeIds.indexOf(targetKey));
-
-        String nodeString = "\t{\"id\":" + nodeIds.indexOf(targetKey) + ", \"clusterId\":" + clusterIds.indexOf(targetClusterKey) + ", \"name\":\""
-                + targetKey + "\" , \"alias\":\"" + targetEntry.getClassName() + '.' + targetEntry.getMethodName()
-                + "\", \"calls\": %d , \"isClusterNode\" : false  }";
-        nodes.put(targetKey, nodeString);
-        incrementNodeCount(targetKey);
-        if(nflg) prtmsg(TNodePrt, nodeIds.indexOf(targetKey), nodeString);
-        
-        // Add source node
-        final String sourceKey = getNodeKey(sourceEntry);
-        if (!nodeIds.contains(sourceKey)) {
-            nodeIds.add(sourceKey);
-        } else if(nflg) prtmsg(existNodPrt, nodeIds.indexOf(targetKey));
-
-        nodeString = "\t{\"id\":" + nodeIds.indexOf(sourceKey) + ", \"clusterId\":" + clusterIds.indexOf(sourceClusterKey) + ", \"name\":\""
-                + sourceKey + "\" , \"alias\":\"" + sourceEntry.getClassName() + '.' + sourceEntry.getMethodName()
-                + "\", \"calls\": %d , \"isClusterNode\" : false }";
-        nodes.put(sourceKey, nodeString);
-        incrementNodeCount(sourceKey);
-        if(nflg) prtmsg(SNodePrt, nodeIds.indexOf(sourceKey), nodeString);
         
         // Add node link
-        final String keyLink = targetKey + "<-" + sourceKey;
-        if (!linkIds.contains(keyLink)) {
-            linkIds.add(keyLink);
-        } else if(nflg) prtmsg(existLnkPrt, linkIds.indexOf(keyLink));
-
-        nodeString = "\t{\"id\":" + linkIds.indexOf(keyLink) + ", \"sourceId\":" + nodeIds.indexOf(sourceKey) 
-                + ", \"targetId\":" + nodeIds.indexOf(targetKey) + ", \"isClusterLink\" : false }";
-        links.put(keyLink, nodeString);
-        if(nflg) prtmsg(LnkPrt, "Nod_ln"+linkIds.indexOf(keyLink), nodeIds.indexOf(targetKey), nodeIds.indexOf(sourceKey), targetKey + "  <-" + sourceKey);
-        //"NodLnk_n%d. srcn%d_to_tgtn%d, key =%s";
+        addLink(sourceId, targetId, false, countLinks);
         
         // Add cluster link
-        final String keyLink11 = targetClusterKey + "<-" + targetKey;
-        if (!linkIds.contains(keyLink11)) {
-            linkIds.add(keyLink11);
-        } else if(nflg) prtmsg(existLnkPrt, linkIds.indexOf(keyLink11));
-
-        nodeString = "\t{\"id\":" + linkIds.indexOf(keyLink11) + ", \"sourceId\":" + nodeIds.indexOf(targetKey) 
-                + ", \"targetId\":" + nodeIds.indexOf(targetClusterKey) + ", \"isClusterLink\" : true }";
-        links.put(keyLink11, nodeString);
-        if(nflg) prtmsg(LnkPrt, "Cls_ln"+linkIds.indexOf(keyLink11), nodeIds.indexOf(targetClusterKey), nodeIds.indexOf(targetKey), targetClusterKey + "  <-" + targetKey);
-        //"ClsLnk_n%d. srcn%d_to_tgtn%d, key =%s";
+        addLink(targetId, stackClusterNodeIds[index], true, countLinks);
     }
     
     /**
-     * original method
-     * @param targetEntry
-     * @param sourceEntry
-     * @param countNodes
-     * @param countLinks
+     * Returns the id of the method node of the entry, the method node and its
+     * cluster node are created if they are new. It is called once for each
+     * frame and generation of the ids.
      */
-    private void add(final Node targetEntry, final Node sourceEntry, final boolean countNodes, final boolean countLinks) {
+    private int addNode(final Node entry) {
+        
+        // Add cluster
+        final String clusterKey = getClusterKey(entry); // key = Node.packageName.className
+        final int clusterId = clusterIds.intern(clusterKey);
         
-        // Add target cluster
-        final String targetClusterKey = getClusterKey(targetEntry); // key = Node.packageName.className
-        if (!clusterIds.contains(targetClusterKey)) {
-            clusterIds.add(targetClusterKey);
+        // Add cluster node
+        if (clusterId == clusterNodeIds.length) {
+            clusterNodeIds = Arrays.copyOf(clusterNodeIds, clusterId * 2);
         }
-        // Add target cluster node
-        if (!nodeIds.contains(targetClusterKey)) {
-            nodeIds.add(targetClusterKey);
-            String nodeString = "\t{\"id\":" + nodeIds.indexOf(targetClusterKey) + ", \"clusterId\":" + clusterIds.indexOf(targetClusterKey)
-                    + ", \"name\":\"" + targetClusterKey + "\" , \"alias\":\"" + targetEntry.getPackageName()
-                    + "\", \"calls\": %d , \"isClusterNode\" : true }";
-            nodes.put(targetClusterKey, nodeString);
-            incrementNodeCount(targetClusterKey);
-            LOGGER.info(nodeString);
+        int numberOfNodes = nodeIds.size();
+        final int clusterNodeId = nodeIds.intern(clusterKey);
+        if (clusterNodeId == numberOfNodes) {
+            clusterNodeIds[clusterId] = clusterNodeId;
+            storeNode(new GraphNode(clusterNodeId, clusterId, clusterKey, entry.getPackageName(), true));
+            incrementNodeCount(clusterNodeId);
+            LOGGER.info("Add " + nodes[clusterNodeId]);
         }
         
-        // Add source cluster
-        final String sourceClusterKey = getClusterKey(sourceEntry);
-        if (!clusterIds.contains(sourceClusterKey)) {
-            clusterIds.add(sourceClusterKey);
+        // Add method node
+        final String nodeKey = getNodeKey(entry);
+        numberOfNodes = nodeIds.size();
+        final int nodeId = nodeIds.intern(nodeKey);
+        if (nodeId == numberOfNodes) {
+            storeNode(new GraphNode(nodeId, clusterId, nodeKey, entry.getClassName() + '.' + entry.getMethodName(), false));
         }
+        return nodeId;
+    }
+    
+    private void addLink(final int sourceId, final int targetId, final boolean isClusterLink, final boolean countLinks) {
+        final int numberOfLinks = linkIds.size();
+        final int linkId = linkIds.intern(sourceId, targetId);
+        if (linkId == numberOfLinks) {
+            if (linkId == links.length) {
+                links = Arrays.copyOf(links, linkId * 2);
+            }
+            links[linkId] = new GraphLink(linkId, sourceId, targetId, isClusterLink);
+            linksLastChange.set(linkId, currentTime);
+        }
+        if (countLinks) {
+            linksCount.increment(linkId);
+            linksLastChange.set(linkId, currentTime);
+        }
+    }
+    
+    private void storeNode(final GraphNode node) {
+        if (node.getId() == nodes.length) {
+            nodes = Arrays.copyOf(nodes, node.getId() * 2);
+        }
+        nodes[node.getId()] = node;
+        nodesLastChange.set(node.getId(), currentTime);
+    }
+    
+    private void incrementNodeCount(final int nodeId) {
+        nodesCount.increment(nodeId);
+        nodesLastChange.set(nodeId, currentTime);
+    }
+    
+    /**
+     * Evicts the least recently sampled method nodes with their links and
+     * cluster nodes, and then the least recently sampled links. The remaining
+     * nodes and links get dense ids again, so the ids of the evicted ones are
+     * reused. The versions known by the clients become invalid, so they get
+     * the full model with the next request.
+     */
+    private void evictColdEntries() {
+        final int numberOfNodes = nodeIds.size();
+        final int numberOfLinks = linkIds.size();
+        final long[] nodesTime = nodesLastChange.copyOf(numberOfNodes);
+        final long[] linksTime = linksLastChange.copyOf(numberOfLinks);
         
-        // Add source cluster node
-        if (!nodeIds.contains(sourceClusterKey)) {
-            nodeIds.add(sourceClusterKey);
-            String nodeString = "\t{\"id\":" + nodeIds.indexOf(sourceClusterKey) + ", \"clusterId\":" + clusterIds.indexOf(sourceClusterKey)
-                    + ", \"name\":\"" + sourceClusterKey + "\" , \"alias\":\"" + sourceEntry.getPackageName()
-                    + "\", \"calls\": %d , \"isClusterNode\" : true }";
-            nodes.put(sourceClusterKey, nodeString);
-            incrementNodeCount(sourceClusterKey);
-            LOGGER.info(nodeString);
+        // Select the method nodes to keep
+        final boolean[] isNodeKept = new boolean[numberOfNodes];
+        final int targetNodes = MAXIMUM_NUMBER_OF_NODES * EVICTION_TARGET_PERCENT / 100;
+        for (int id = 0; id < numberOfNodes; id++) {
+            isNodeKept[id] = !nodes[id].isClusterNode();
         }
-
-        // Add target node
-        final String targetKey = getNodeKey(targetEntry);
-        if (!nodeIds.contains(targetKey)) {
-            nodeIds.add(targetKey);
+        if (numberOfNodes > MAXIMUM_NUMBER_OF_NODES) {
+            final int keptMethods = Math.max(targetNodes / 2, targetNodes - clusterIds.size());
+            selectMostRecent(nodesTime, isNodeKept, keptMethods);
         }
-
-        String nodeString = "\t{\"id\":" + nodeIds.indexOf(targetKey) + ", \"clusterId\":" + clusterIds.indexOf(targetClusterKey) + ", \"name\":\""
-                + targetKey + "\" , \"alias\":\"" + targetEntry.getClassName() + '.' + targetEntry.getMethodName()
-                + "\", \"calls\": %d , \"isClusterNode\" : false  }";
-        nodes.put(targetKey, nodeString);
-        incrementNodeCount(targetKey);
         
-        // Add source node
-        final String sourceKey = getNodeKey(sourceEntry);
-        if (!nodeIds.contains(sourceKey)) {
-            nodeIds.add(sourceKey);
+        // Keep cluster nodes with at least one method node
+        final boolean[] isClusterKept = new boolean[clusterIds.size()];
+        for (int id = 0; id < numberOfNodes; id++) {
+            if (isNodeKept[id]) {
+                isClusterKept[nodes[id].getClusterId()] = true;
+            }
+        }
+        for (int clusterId = 0; clusterId < isClusterKept.length; clusterId++) {
+            isNodeKept[clusterNodeIds[clusterId]] = isClusterKept[clusterId];
         }
-
-        nodeString = "\t{\"id\":" + nodeIds.indexOf(sourceKey) + ", \"clusterId\":" + clusterIds.indexOf(sourceClusterKey) + ", \"name\":\""
-                + sourceKey + "\" , \"alias\":\"" + sourceEntry.getClassName() + '.' + sourceEntry.getMethodName()
-                + "\", \"calls\": %d , \"isClusterNode\" : false }";
-        nodes.put(sourceKey, nodeString);
-        incrementNodeCount(sourceKey);
         
-        // Add node link
-        final String keyLink = targetKey + "<-" + sourceKey;
-        if (!linkIds.contains(keyLink)) {
-            linkIds.add(keyLink);
+        // Select the links to keep
+        final boolean[] isLinkKept = new boolean[numberOfLinks];
+        int keptLinks = 0;
+        for (int id = 0; id < numberOfLinks; id++) {
+            isLinkKept[id] = isNodeKept[links[id].getSourceId()] && isNodeKept[links[id].getTargetId()];
+            keptLinks += isLinkKept[id] ? 1 : 0;
+        }
+        if (keptLinks > MAXIMUM_NUMBER_OF_LINKS) {
+            selectMostRecent(linksTime, isLinkKept, MAXIMUM_NUMBER_OF_LINKS * EVICTION_TARGET_PERCENT / 100);
         }
-
-        nodeString = "\t{\"id\":" + linkIds.indexOf(keyLink) + ", \"sourceId\":" + nodeIds.indexOf(sourceKey) + ", \"targetId\":"
-                + nodeIds.indexOf(targetKey) + ", \"isClusterLink\" : false }";
-        links.put(keyLink, nodeString);
         
-        // Add cluster link
-        final String keyLink11 = targetClusterKey + "<-" + targetKey;
-        if (!linkIds.contains(keyLink11)) {
-            linkIds.add(keyLink11);
+        // Assign dense ids in the old order
+        final int[] newClusterIds = renumber(isClusterKept);
+        final int[] newNodeIds = renumber(isNodeKept);
+        final int[] newLinkIds = renumber(isLinkKept);
+        
+        // Rebuild the tables and arrays
+        final GraphNode[] oldNodes = Arrays.copyOf(nodes, numberOfNodes);
+        final GraphLink[] oldLinks = Arrays.copyOf(links, numberOfLinks);
+        final int[] oldClusterNodeIds = Arrays.copyOf(clusterNodeIds, isClusterKept.length);
+        Arrays.fill(nodes, 0, numberOfNodes, null);
+        Arrays.fill(links, 0, numberOfLinks, null);
+        nodeIds.clear();
+        clusterIds.clear();
+        linkIds.clear();
+        for (int clusterId = 0; clusterId < isClusterKept.length; clusterId++) {
+            if (isClusterKept[clusterId]) {
+                clusterIds.intern(oldNodes[oldClusterNodeIds[clusterId]].getName());
+                clusterNodeIds[newClusterIds[clusterId]] = newNodeIds[oldClusterNodeIds[clusterId]];
+            }
         }
-
-        nodeString = "\t{\"id\":" + linkIds.indexOf(keyLink11) + ", \"sourceId\":" + nodeIds.indexOf(targetKey) + ", \"targetId\":"
-                + nodeIds.indexOf(targetClusterKey) + ", \"isClusterLink\" : true }";
-        links.put(keyLink11, nodeString);
+        for (int id = 0; id < numberOfNodes; id++) {
+            if (isNodeKept[id]) {
+                final GraphNode node = oldNodes[id];
+                nodeIds.intern(node.getName());
+                nodes[newNodeIds[id]] = new GraphNode(newNodeIds[id], newClusterIds[node.getClusterId()], node.getName(),
+                        node.getAlias(), node.isClusterNode());
+            }
+        }
+        for (int id = 0; id < numberOfLinks; id++) {
+            if (isLinkKept[id]) {
+                final GraphLink link = oldLinks[id];
+                final int sourceId = newNodeIds[link.getSourceId()];
+                final int targetId = newNodeIds[link.getTargetId()];
+                linkIds.intern(sourceId, targetId);
+                links[newLinkIds[id]] = new GraphLink(newLinkIds[id], sourceId, targetId, link.isClusterLink());
+            }
+        }
+        nodesCount.remap(newNodeIds);
+        linksCount.remap(newLinkIds);
+        nodesLastChange.remap(newNodeIds);
+        linksLastChange.remap(newLinkIds);
+        callingContextTree.remap(newNodeIds);
+        resetVersion = version + 1;
+        idGeneration = ID_GENERATIONS.incrementAndGet();
+        
+        LOGGER.info("Evicted nodes=" + (numberOfNodes - nodeIds.size()) + " links=" + (numberOfLinks - linkIds.size())
+                + " clusters=" + (isClusterKept.length - clusterIds.size()));
     }
     
-    private void incrementNodeCount(final String keyNode) {
-        long value = 0L;
-        if (nodesCount.containsKey(keyNode)) {
-            value = nodesCount.get(keyNode) + 1L;
+    /**
+     * Keeps just the selected entries with the most recent times, at ties
+     * the lower ids win
+     */
+    private static void selectMostRecent(final long[] times, final boolean[] isSelected, final int maximum) {
+        int numberOfSelected = 0;
+        for (final boolean selected : isSelected) {
+            numberOfSelected += selected ? 1 : 0;
+        }
+        if (numberOfSelected <= maximum) {
+            return;
+        }
+        final long[] selectedTimes = new long[numberOfSelected];
+        for (int id = 0, index = 0; id < isSelected.length; id++) {
+            if (isSelected[id]) {
+                selectedTimes[index++] = times[id];
+            }
+        }
+        Arrays.sort(selectedTimes);
+        final long threshold = selectedTimes[numberOfSelected - maximum];
+        int numberAboveThreshold = 0;
+        for (int id = 0; id < isSelected.length; id++) {
+            if (isSelected[id] && times[id] > threshold) {
+                numberAboveThreshold++;
+            }
+        }
+        int numberAtThreshold = maximum - numberAboveThreshold;
+        for (int id = 0; id < isSelected.length; id++) {
+            if (isSelected[id] && times[id] <= threshold) {
+                isSelected[id] = times[id] == threshold && numberAtThreshold-- > 0;
+            }
         }
-        maximumNodeCount = Math.max(maximumNodeCount, value);
-        nodesCount.put(keyNode, value);
     }
     
-    private void resetCouters() {
-        for (final String key : nodesCount.keySet()) {
-            nodesCount.put(key, 0L);
+    private static int[] renumber(final boolean[] isKept) {
+        final int[] result = new int[isKept.length];
+        int newId = 0;
+        for (int id = 0; id < isKept.length; id++) {
+            result[id] = isKept[id] ? newId++ : SymbolTable.NO_ID;
         }
-        maximumNodeCount = 1L;
+        return result;
     }
     
     private String getNodeKey(Node item) {
@@ -493,22 +634,64 @@ public class Model {
         return item.getPackageName() + '.' + item.getClassName();
     }
     
-    public synchronized String getFilterBlackList() {
+    public MethodFilter getFilterBlackList() {
         return filterBlackList;
     }
     
-    public synchronized void setFilterBlackList(String filterBlackList) {
+    /**
+     * Throws a PatternSyntaxException for an invalid expression, the last
+     * valid filter stays active
+     */
+    public void setFilterBlackList(String filterBlackList) {
         LOGGER.info("Set filterBlackList=" + filterBlackList);
-        this.filterBlackList = filterBlackList;
+        this.filterBlackList = MethodFilter.compile(filterBlackList);
     }
     
-    public synchronized String getFilterWhiteList() {
+    public MethodFilter getFilterWhiteList() {
         return filterWhiteList;
     }
     
-    public synchronized void setFilterWhiteList(String filterWhiteList) {
+    /**
+     * Throws a PatternSyntaxException for an invalid expression, the last
+     * valid filter stays active
+     */
+    public void setFilterWhiteList(String filterWhiteList) {
         LOGGER.info("Set filterWhiteList=" + filterWhiteList);
-        this.filterWhiteList = filterWhiteList;
+        this.filterWhiteList = MethodFilter.compile(filterWhiteList);
+    }
+    
+    public boolean isCpuMode() {
+        return isCpuMode;
+    }
+    
+    /**
+     * The counts of both modes can't be compared, so the model is reset with
+     * each change of the mode
+     */
+    public void setCpuMode(boolean isCpuMode) {
+        LOGGER.info("Set cpuMode=" + isCpuMode);
+        if (this.isCpuMode != isCpuMode) {
+            this.isCpuMode = isCpuMode;
+            reset();
+        }
+    }
+    
+    public Pattern getThreadFilter() {
+        return threadFilter;
+    }
+    
+    /**
+     * Throws a PatternSyntaxException for an invalid expression, the last
+     * valid filter stays active
+     */
+    public void setThreadFilter(String threadFilter) {
+        LOGGER.info("Set threadFilter=" + threadFilter);
+        this.threadFilter = compileThreadFilter(threadFilter);
+    }
+    
+    private static Pattern compileThreadFilter(final String threadFilter) {
+        final String expression = threadFilter.trim();
+        return expression.isEmpty() ? null : Pattern.compile(expression);
     }
     
 }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The class is an immutable view of the model at one point in time. It is
+ * created under the lock of the model, but the expensive serialization runs
+ * without the lock, so the analyzer can continue to append call stacks.
+ */
+public final class ModelSnapshot {
+    
+    /**
+     * Constants
+     */
+    private static final String NL = System.getProperty("line.separator");
+    
+    private static final int BINARY_FORMAT_VERSION = 1;
+    
+    /**
+     * Attributes
+     */
+    private final GraphNode[] nodes;
+    
+    private final GraphLink[] links;
+    
+    /**
+     * The buckets of the requested window, they are summed outside of the
+     * lock of the model
+     */
+    private final CounterBucket[] nodesBuckets;
+    
+    private final CounterBucket[] linksBuckets;
+    
+    private final int numberOfClusters;
+    
+    /**
+     * The version of the model, which is the time of the snapshot
+     */
+    private final long version;
+    
+    /**
+     * Length of the requested window in milliseconds
+     */
+    private final long windowMillis;
+    
+    /**
+     * Time constant of the exponential decay in milliseconds, or zero for
+     * plain counts in the window
+     */
+    private final long decayMillis;
+    
+    /**
+     * The snapshot contains just the nodes and links changed at this time or
+     * later. Their counts may have been changed for the client by the window,
+     * which has moved on since the version the client knows.
+     */
+    private final long changedSince;
+    
+    private final SamplingStatistics samplingStatistics;
+    
+    /**
+     * Time of the last change for each node and link, null for a full
+     * snapshot
+     */
+    private final long[] nodesLastChange;
+    
+    private final long[] linksLastChange;
+    
+    /**
+     * The sums of the buckets, they are calculated with the first use
+     */
+    private double[] nodesCount;
+    
+    private double[] linksCount;
+    
+    private double maximumNodeCount = 1.0;
+    
+    /**
+     * Constructor of a full snapshot, the arrays are owned by the snapshot
+     * after the call
+     */
+    public ModelSnapshot(final GraphNode[] nodes, final GraphLink[] links, final CounterBucket[] nodesBuckets,
+            final CounterBucket[] linksBuckets, final int numberOfClusters, final long version, final long windowMillis,
+            final long decayMillis, final SamplingStatistics samplingStatistics) {
+        this(nodes, links, nodesBuckets, linksBuckets, numberOfClusters, version, windowMillis, decayMillis, samplingStatistics,
+                0L, null, null);
+    }
+    
+    /**
+     * Constructor of a delta snapshot, the arrays are owned by the snapshot
+     * after the call
+     */
+    public ModelSnapshot(final GraphNode[] nodes, final GraphLink[] links, final CounterBucket[] nodesBuckets,
+            final CounterBucket[] linksBuckets, final int numberOfClusters, final long version, final long windowMillis,
+            final long decayMillis, final SamplingStatistics samplingStatistics, final long changedSince,
+            final long[] nodesLastChange, final long[] linksLastChange) {
+        this.nodes = nodes;
+        this.links = links;
+        this.nodesBuckets = nodesBuckets;
+        this.linksBuckets = linksBuckets;
+        this.numberOfClusters = numberOfClusters;
+        this.version = version;
+        this.windowMillis = windowMillis;
+        this.decayMillis = decayMillis;
+        this.samplingStatistics = samplingStatistics;
+        this.changedSince = changedSince;
+        this.nodesLastChange = nodesLastChange;
+        this.linksLastChange = linksLastChange;
+    }
+    
+    /**
+     * Methods
+     */
+    public int getNumberOfNodes() {
+        return nodes.length;
+    }
+    
+    public int getNumberOfLinks() {
+        return links.length;
+    }
+    
+    public int getNumberOfClusters() {
+        return numberOfClusters;
+    }
+    
+    public long getMaximumNodeCount() {
+        sumBuckets();
+        return Math.round(maximumNodeCount);
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public boolean isFull() {
+        return nodesLastChange == null;
+    }
+    
+    /**
+     * A node or link has to be sent if it was changed in the window the
+     * client knows or later. All others had a count of zero for the client
+     * and have it still.
+     */
+    private boolean isChanged(final long[] lastChanges, final int id) {
+        return isFull() || (id < lastChanges.length && lastChanges[id] >= changedSince);
+    }
+    
+    /**
+     * Sums the buckets of the window, with decay the weight of a bucket
+     * falls exponentially with its age
+     */
+    private void sumBuckets() {
+        if (null == nodesCount) {
+            nodesCount = sumBuckets(nodesBuckets, nodes.length);
+            linksCount = sumBuckets(linksBuckets, links.length);
+            for (final double count : nodesCount) {
+                maximumNodeCount = Math.max(maximumNodeCount, count);
+            }
+        }
+    }
+    
+    private double[] sumBuckets(final CounterBucket[] buckets, final int length) {
+        final double[] result = new double[length];
+        for (final CounterBucket bucket : buckets) {
+            final double weight = (decayMillis > 0L) ? Math.exp((bucket.getStartTime() - version) / (double) decayMillis) : 1.0;
+            bucket.addTo(result, weight);
+        }
+        return result;
+    }
+    
+    public void writeJSON(final JsonStreamWriter fw) throws IOException {
+        
+        sumBuckets();
+        
+        fw.append("{").append(NL);
+        
+        fw.append("\"version\":").append(version).append(",").append(NL);
+        fw.append("\"full\":").append(isFull()).append(",").append(NL);
+        fw.append("\"window\":").append(windowMillis).append(",").append(NL);
+        fw.append("\"decay\":").append(decayMillis).append(",").append(NL);
+        fw.append("\"sampling\":");
+        samplingStatistics.writeJSON(fw);
+        fw.append(",").append(NL);
+        
+        fw.append("\"nodes\":[");
+        fw.append(NL);
+        boolean isFirst = true;
+        for (int index = 0; index < nodes.length; index++) {
+            if (!isChanged(nodesLastChange, index)) {
+                continue;
+            }
+            if (!isFirst) {
+                fw.append(",").append(NL);
+            }
+            isFirst = false;
+            final long nodeActivity = (long) (nodesCount[index] * 1000.0 / maximumNodeCount);
+            writeNode(fw, nodes[index], nodeActivity);
+        }
+        fw.append(NL).append("],");
+        fw.append(NL);
+        
+        fw.append("\"links\":[");
+        fw.append(NL);
+        isFirst = true;
+        for (int index = 0; index < links.length; index++) {
+            if (!isChanged(linksLastChange, index)) {
+                continue;
+            }
+            if (!isFirst) {
+                fw.append(",").append(NL);
+            }
+            isFirst = false;
+            writeLink(fw, links[index], Math.round(linksCount[index]));
+        }
+        fw.append(NL).append("]}");
+        fw.append(NL);
+    }
+    
+    /**
+     * Writes the snapshot in the compact binary format, see the decoder of
+     * index.html. Numbers are variable length, see BinaryStreamWriter.
+     * 
+     * <pre>
+     * 'Y' 'B' 1                            magic bytes and format version
+     * version, full, window, decay         full is a byte, 1 for true
+     * rate, interval, overhead, load       rate, overhead and load in 1/1000
+     * count, strings                       table of the names in this snapshot
+     * count, nodes                         id delta &lt;&lt; 2 | has names &lt;&lt; 1 | is cluster,
+     *                                      clusterId, [name index, alias index], calls
+     * count, links                         id delta &lt;&lt; 1 | is cluster,
+     *                                      sourceId, targetId, calls
+     * </pre>
+     * 
+     * The id delta is the difference to the id of the previous node or link,
+     * the first one to -1. The names of nodes with an id lower than known
+     * nodes are left out in a delta snapshot, because the client has them.
+     */
+    public void writeBinary(final BinaryStreamWriter bw, final int knownNodes) throws IOException {
+        
+        sumBuckets();
+        
+        bw.writeByte('Y').writeByte('B').writeByte(BINARY_FORMAT_VERSION);
+        bw.writeVarint(version).writeByte(isFull() ? 1 : 0).writeVarint(windowMillis).writeVarint(decayMillis);
+        bw.writeVarint(Math.round(samplingStatistics.getRate() * 1000.0));
+        bw.writeVarint(samplingStatistics.getIntervalMillis());
+        bw.writeVarint(Math.round(samplingStatistics.getOverhead() * 1000.0));
+        bw.writeVarint(Math.round(samplingStatistics.getLoad() * 1000.0));
+        
+        // Each name is sent once, even if it is used by several nodes
+        final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        int numberOfNodes = 0;
+        for (int index = 0; index < nodes.length; index++) {
+            if (isChanged(nodesLastChange, index)) {
+                numberOfNodes++;
+                if (isFull() || index >= knownNodes) {
+                    addString(strings, nodes[index].getName());
+                    addString(strings, nodes[index].getAlias());
+                }
+            }
+        }
+        bw.writeVarint(strings.size());
+        for (final String string : strings.keySet()) {
+            bw.writeString(string);
+        }
+        
+        bw.writeVarint(numberOfNodes);
+        int previousId = -1;
+        for (int index = 0; index < nodes.length; index++) {
+            if (!isChanged(nodesLastChange, index)) {
+                continue;
+            }
+            final GraphNode node = nodes[index];
+            final boolean hasNames = isFull() || index >= knownNodes;
+            bw.writeVarint(((long) (node.getId() - previousId) << 2) | (hasNames ? 2 : 0) | (node.isClusterNode() ? 1 : 0));
+            bw.writeVarint(node.getClusterId());
+            if (hasNames) {
+                bw.writeVarint(strings.get(node.getName()));
+                bw.writeVarint(strings.get(node.getAlias()));
+            }
+            bw.writeVarint((long) (nodesCount[index] * 1000.0 / maximumNodeCount));
+            previousId = node.getId();
+        }
+        
+        int numberOfLinks = 0;
+        for (int index = 0; index < links.length; index++) {
+            if (isChanged(linksLastChange, index)) {
+                numberOfLinks++;
+            }
+        }
+        bw.writeVarint(numberOfLinks);
+        previousId = -1;
+        for (int index = 0; index < links.length; index++) {
+            if (!isChanged(linksLastChange, index)) {
+                continue;
+            }
+            final GraphLink link = links[index];
+            bw.writeVarint(((long) (link.getId() - previousId) << 1) | (link.isClusterLink() ? 1 : 0));
+            bw.writeVarint(link.getSourceId());
+            bw.writeVarint(link.getTargetId());
+            bw.writeVarint(Math.round(linksCount[index]));
+            previousId = link.getId();
+        }
+    }
+    
+    private static void addString(final Map<String, Integer> strings, final String string) {
+        if (!strings.containsKey(string)) {
+            strings.put(string, strings.size());
+        }
+    }
+    
+    private static void writeNode(final JsonStreamWriter fw, final GraphNode node, final long calls) throws IOException {
+        fw.append("\t{\"id\":").append(node.getId());
+        fw.append(", \"clusterId\":").append(node.getClusterId());
+        fw.append(", \"name\":\"").append(node.getName());
+        fw.append("\" , \"alias\":\"").append(node.getAlias());
+        fw.append("\", \"calls\": ").append(calls);
+        fw.append(" , \"isClusterNode\" : ").append(node.isClusterNode()).append(" }");
+    }
+    
+    private static void writeLink(final JsonStreamWriter fw, final GraphLink link, final long calls) throws IOException {
+        fw.append("\t{\"id\":").append(link.getId());
+        fw.append(", \"sourceId\":").append(link.getSourceId());
+        fw.append(", \"targetId\":").append(link.getTargetId());
+        fw.append(", \"calls\": ").append(calls);
+        fw.append(" , \"isClusterLink\" : ").append(link.isClusterLink()).append(" }");
+    }
+    
+}
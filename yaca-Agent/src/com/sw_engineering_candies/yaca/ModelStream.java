@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The class pushes the changes of one model to all subscribed clients as
+ * Server-Sent Events. On each tick the model is serialized once and the same
+ * bytes are given to the queues of all subscribers, so the costs don't grow
+ * with the number of clients. A client which is too slow to empty its queue
+ * skips the waiting events and gets the full model with the next tick.
+ */
+public class ModelStream {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(ModelStream.class);
+    
+    private static final int QUEUE_CAPACITY = 4;
+    
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    
+    /**
+     * Attributes
+     */
+    private final Model model;
+    
+    private final long windowMillis;
+    
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    
+    /**
+     * Version of the last published changes, only used by the thread which
+     * publishes
+     */
+    private long lastVersion = 0L;
+    
+    private final byte[] responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+    
+    /**
+     * Constructor
+     */
+    public ModelStream(final Model model, final long windowMillis) {
+        this.model = model;
+        this.windowMillis = windowMillis;
+    }
+    
+    /**
+     * Methods
+     */
+    public Subscriber subscribe() {
+        final Subscriber subscriber = new Subscriber();
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+    
+    public void unsubscribe(final Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+    
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+    
+    /**
+     * Serializes the changes since the last tick and, just for new or skipped
+     * subscribers, the full model
+     */
+    public void publish() throws IOException {
+        final long since = lastVersion;
+        long nextVersion = Long.MAX_VALUE;
+        byte[] changes = null;
+        byte[] full = null;
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isFullRequired) {
+                if (null == full) {
+                    full = serialize(0L);
+                    nextVersion = Math.min(nextVersion, lastVersion);
+                }
+                subscriber.offer(full, true);
+            } else {
+                if (null == changes) {
+                    changes = serialize(since);
+                    nextVersion = Math.min(nextVersion, lastVersion);
+                }
+                subscriber.offer(changes, false);
+            }
+        }
+        
+        // The next changes start at the oldest version sent in this tick
+        if (Long.MAX_VALUE != nextVersion) {
+            lastVersion = nextVersion;
+        }
+    }
+    
+    /**
+     * Creates one event with the model as data, each line of the JSON text is
+     * a data line of the event
+     */
+    private byte[] serialize(final long since) throws IOException {
+        final ModelSnapshot snapshot = model.takeSnapshot(since, windowMillis, 0L);
+        lastVersion = snapshot.getVersion();
+        
+        final ByteArrayOutputStream event = new ByteArrayOutputStream(RESPONSE_BUFFER_SIZE);
+        event.write(("id: " + snapshot.getVersion() + "\ndata: ").getBytes(StandardCharsets.US_ASCII));
+        final JsonStreamWriter jsonWriter = new JsonStreamWriter(new DataLineOutputStream(event), responseBuffer);
+        snapshot.writeJSON(jsonWriter);
+        jsonWriter.flush();
+        event.write('\n');
+        event.write('\n');
+        return event.toByteArray();
+    }
+    
+    /**
+     * Starts a new data line after each line end and drops carriage returns
+     */
+    private static class DataLineOutputStream extends FilterOutputStream {
+        
+        private static final byte[] DATA_LINE = "\ndata: ".getBytes(StandardCharsets.US_ASCII);
+        
+        DataLineOutputStream(final OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(final int value) throws IOException {
+            if ('\n' == value) {
+                out.write(DATA_LINE);
+            } else if ('\r' != value) {
+                out.write(value);
+            }
+        }
+        
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            int start = offset;
+            final int end = offset + length;
+            for (int index = offset; index < end; index++) {
+                if ('\n' == bytes[index] || '\r' == bytes[index]) {
+                    out.write(bytes, start, index - start);
+                    write(bytes[index]);
+                    start = index + 1;
+                }
+            }
+            out.write(bytes, start, end - start);
+        }
+    }
+    
+    /**
+     * Bounded queue of the events for one client
+     */
+    public static class Subscriber {
+        
+        private final BlockingQueue<byte[]> events = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+        
+        /**
+         * Is true until the subscriber has got the full model, only changed by
+         * the thread which publishes
+         */
+        private volatile boolean isFullRequired = true;
+        
+        private void offer(final byte[] event, final boolean isFull) {
+            if (events.offer(event)) {
+                if (isFull) {
+                    isFullRequired = false;
+                }
+            } else {
+                events.clear();
+                isFullRequired = true;
+                LOGGER.debug("Skip events of slow subscriber");
+            }
+        }
+        
+        /**
+         * Returns the next event, or null if there is none within the timeout
+         */
+        public byte[] poll(final long timeoutMillis) throws InterruptedException {
+            return events.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+}
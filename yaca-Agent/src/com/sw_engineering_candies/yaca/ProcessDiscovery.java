@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sun.jvmstat.monitor.MonitorException;
+import sun.jvmstat.monitor.MonitoredHost;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.MonitoredVmUtil;
+import sun.jvmstat.monitor.VmIdentifier;
+import sun.jvmstat.perfdata.monitor.protocol.local.PerfDataFile;
+
+/**
+ * The class discovers the local VMs by their performance data files, e.g.
+ * /tmp/hsperfdata_[user]/[pid]. The temporary directory of the VMs and the
+ * performance data directories are watched, so the list of processes is just
+ * updated by the pending events and no VM has to be attached. The main class
+ * and command line of a process are read from its performance data with the
+ * first use and cached until the process exits.
+ */
+public class ProcessDiscovery {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(ProcessDiscovery.class);
+    
+    private static final String PERF_DATA_PREFIX = PerfDataFile.dirNamePrefix;
+    
+    private static final File PROC_DIRECTORY = new File("/proc");
+    
+    /**
+     * Attributes
+     */
+    /**
+     * The VMs write their performance data into the platform temporary
+     * directory, which may differ from java.io.tmpdir
+     */
+    private final Path tempDirectory = Paths.get(PerfDataFile.getTempDirectory());
+    
+    private final Integer ownProcessId = Integer.valueOf(ManagementFactory.getRuntimeMXBean().getName().split("@")[0]);
+    
+    /**
+     * The watched performance data directories
+     */
+    private final Set<Path> directories = new HashSet<Path>();
+    
+    private WatchService watchService = null;
+    
+    /**
+     * The discovered processes by process id, the main class and command line
+     * are null until the first use
+     */
+    private final Map<Integer, String[]> processes = new TreeMap<Integer, String[]>(Collections.reverseOrder());
+    
+    /**
+     * Constructor
+     */
+    public ProcessDiscovery() {
+        try {
+            watchService = tempDirectory.getFileSystem().newWatchService();
+            tempDirectory.register(watchService, ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException e) {
+            watchService = null;
+            LOGGER.warn("Can't watch performance data, scan it with each request: " + e.getMessage());
+        }
+        rescan();
+    }
+    
+    /**
+     * Methods
+     */
+    public synchronized List<Integer> getProcessIds() {
+        update();
+        return new ArrayList<Integer>(processes.keySet());
+    }
+    
+    /**
+     * Returns the main class of the process, or an empty string if it is not
+     * known
+     */
+    public synchronized String getMainClass(final Integer processId) {
+        return getDescriptor(processId)[0];
+    }
+    
+    public synchronized String getCommandLine(final Integer processId) {
+        return getDescriptor(processId)[1];
+    }
+    
+    /**
+     * Returns the first process with the main class, or an empty string
+     */
+    public synchronized String findProcessId(final String mainClassName) {
+        update();
+        for (final Integer processId : processes.keySet()) {
+            if (getMainClass(processId).startsWith(mainClassName)) {
+                return processId.toString();
+            }
+        }
+        return "";
+    }
+    
+    /**
+     * Scans the temporary directory for new users and all performance data
+     * directories for processes, e.g. after an overflow of the events
+     */
+    private void rescan() {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(tempDirectory, PERF_DATA_PREFIX + "*")) {
+            for (final Path directory : stream) {
+                if (Files.isDirectory(directory) && directories.add(directory) && null != watchService) {
+                    directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Can't scan " + tempDirectory + " " + e.getMessage());
+        }
+        
+        final Set<Integer> found = new HashSet<Integer>();
+        for (final Path directory : directories) {
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path file : stream) {
+                    final Integer processId = parseProcessId(file.getFileName());
+                    if (null != processId) {
+                        found.add(processId);
+                        add(processId);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Can't scan " + directory + " " + e.getMessage());
+            }
+        }
+        processes.keySet().retainAll(found);
+    }
+    
+    /**
+     * Applies the pending events of the watched directories
+     */
+    private void update() {
+        if (null == watchService) {
+            rescan();
+            return;
+        }
+        boolean isOverflow = false;
+        WatchKey key;
+        while (null != (key = watchService.poll())) {
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (OVERFLOW == event.kind()) {
+                    isOverflow = true;
+                    continue;
+                }
+                
+                // A new user has started its first VM
+                if (tempDirectory.equals(key.watchable())) {
+                    isOverflow |= event.context().toString().startsWith(PERF_DATA_PREFIX);
+                    continue;
+                }
+                final Integer processId = parseProcessId((Path) event.context());
+                if (null == processId) {
+                    continue;
+                }
+                if (ENTRY_CREATE == event.kind()) {
+                    add(processId);
+                } else if (ENTRY_DELETE == event.kind()) {
+                    processes.remove(processId);
+                    LOGGER.debug("Process exited pid=" + processId);
+                }
+            }
+            if (!key.reset()) {
+                directories.remove(key.watchable());
+            }
+        }
+        if (isOverflow) {
+            rescan();
+        }
+        removeExitedProcesses();
+    }
+    
+    /**
+     * The file of a killed VM remains and no delete event is sent, so the
+     * processes are checked if possible
+     */
+    private void removeExitedProcesses() {
+        final Iterator<Integer> iterator = processes.keySet().iterator();
+        while (iterator.hasNext()) {
+            final Integer processId = iterator.next();
+            if (!isAlive(processId)) {
+                iterator.remove();
+                LOGGER.debug("Process exited pid=" + processId);
+            }
+        }
+    }
+    
+    private static boolean isAlive(final Integer processId) {
+        return !PROC_DIRECTORY.isDirectory() || new File(PROC_DIRECTORY, processId.toString()).isDirectory();
+    }
+    
+    private void add(final Integer processId) {
+        if (ownProcessId.equals(processId) || processes.containsKey(processId) || !isAlive(processId)) {
+            return;
+        }
+        processes.put(processId, new String[2]);
+        LOGGER.debug("Process found pid=" + processId);
+    }
+    
+    private String[] getDescriptor(final Integer processId) {
+        final String[] descriptor = processes.get(processId);
+        if (null == descriptor) {
+            return new String[] { "", "" };
+        }
+        if (null == descriptor[0]) {
+            
+            // A starting VM may not have initialized its performance data,
+            // so a failed read is not cached
+            try {
+                final MonitoredHost local = MonitoredHost.getMonitoredHost("localhost");
+                final MonitoredVm vm = local.getMonitoredVm(new VmIdentifier("//" + processId));
+                try {
+                    descriptor[1] = MonitoredVmUtil.commandLine(vm);
+                    descriptor[0] = MonitoredVmUtil.mainClass(vm, true);
+                } finally {
+                    local.detach(vm);
+                }
+            } catch (URISyntaxException | MonitorException e) {
+                LOGGER.debug("No descriptor for pid=" + processId + " " + e.getMessage());
+                return new String[] { "", "" };
+            }
+        }
+        return descriptor;
+    }
+    
+    private static Integer parseProcessId(final Path fileName) {
+        final String name = fileName.toString();
+        for (int index = 0; index < name.length(); index++) {
+            if (!Character.isDigit(name.charAt(index))) {
+                return null;
+            }
+        }
+        try {
+            return name.isEmpty() ? null : Integer.valueOf(name);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+}
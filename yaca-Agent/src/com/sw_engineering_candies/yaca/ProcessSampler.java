@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sun.tools.attach.HotSpotVirtualMachine;
+
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+
+/**
+ * The class samples the call stacks of one attached VM into its own model.
+ * Each run takes one sample and schedules the next run on the shared executor,
+ * so a process is never sampled by two threads at the same time.
+ */
+public class ProcessSampler implements Runnable {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(ProcessSampler.class);
+    
+    /**
+     * Attributes
+     */
+    private final String processId;
+    
+    private final Model model;
+    
+    private final ScheduledExecutorService executor;
+    
+    /**
+     * The analyzer shares the overhead budget among all processes
+     */
+    private final CallStackAnalyzer analyzer;
+    
+    private HotSpotVirtualMachine hsVm = null;
+    
+    private SamplerConnection sampler = null;
+    
+    private final ThreadDumpParser parser = new ThreadDumpParser();
+    
+    private SamplingScheduler scheduler = null;
+    
+    private volatile boolean isClosed = false;
+    
+    /**
+     * Frame ids of the current stack which pass the filters, the array is
+     * reused
+     */
+    private int[] acceptedFrameIds = new int[256];
+    
+    /**
+     * The version of the filters is incremented with each change of white or
+     * black list and invalidates the cached verdicts of the frames
+     */
+    private int filterVersion = 0;
+    
+    private MethodFilter lastFilterWhite = MethodFilter.EMPTY;
+    
+    private MethodFilter lastFilterBlack = MethodFilter.EMPTY;
+    
+    /**
+     * The thread filter is sent to the sampler agent with each change
+     */
+    private Pattern lastThreadFilter = null;
+    
+    private boolean lastCpuMode = false;
+    
+    /**
+     * Constructor
+     */
+    public ProcessSampler(final String processId, final Model model, final ScheduledExecutorService executor,
+            final CallStackAnalyzer analyzer) {
+        this.processId = processId;
+        this.model = model;
+        this.executor = executor;
+        this.analyzer = analyzer;
+    }
+    
+    /**
+     * Methods
+     */
+    public String getProcessId() {
+        return processId;
+    }
+    
+    public Model getModel() {
+        return model;
+    }
+    
+    public boolean isClosed() {
+        return isClosed;
+    }
+    
+    /**
+     * Returns true, if the sampler is closed without being attached, e.g.
+     * the VM belongs to another user or doesn't support the attach mechanism
+     */
+    public synchronized boolean isAttachFailed() {
+        return isClosed && null == hsVm;
+    }
+    
+    /**
+     * The first run attaches to the VM, so the caller doesn't wait for it
+     */
+    public void start() {
+        model.setActiveProcess(processId);
+        executor.execute(this);
+    }
+    
+    /**
+     * Takes one sample and schedules the next one
+     */
+    @Override
+    public void run() {
+        if (isClosed) {
+            return;
+        }
+        try {
+            if (null == hsVm) {
+                attach();
+                if (isClosed) {
+                    return;
+                }
+            }
+            final long costNanos = sample();
+            if (costNanos >= 0L && !isClosed) {
+                model.setSamplingStatistics(scheduler.getStatistics());
+                final long delayNanos = scheduler.getNextDelayNanos(costNanos, analyzer.getNumberOfProcesses());
+                executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+        } catch (final AttachNotSupportedException e) {
+            LOGGER.error("AttachNotSupportedException pid=" + processId + " " + e.getMessage());
+        } catch (final IOException e) {
+            LOGGER.error("IOException " + e.getMessage());
+        } catch (final RejectedExecutionException e) {
+            LOGGER.debug("Executor stopped " + e.getMessage());
+        } catch (final RuntimeException e) {
+            
+            // The executor would swallow the exception and the sampler would
+            // neither be scheduled again nor release its resources
+            LOGGER.error("Sampling failed pid=" + processId, e);
+        }
+        close();
+    }
+    
+    /**
+     * Detaches from the VM, the model is kept until the analyzer removes the
+     * process
+     */
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        model.setConnected(false);
+        if (null != sampler) {
+            sampler.close();
+        }
+        if (null != scheduler) {
+            scheduler.close();
+        }
+        detach(hsVm);
+        LOGGER.info("Detached from pid=" + processId);
+    }
+    
+    /**
+     * The resources are opened without the lock, so a detach request doesn't
+     * wait for the attach mechanism. If the sampler has been closed in the
+     * meantime, they are released at once.
+     */
+    private void attach() throws AttachNotSupportedException, IOException {
+        VirtualMachine vm = null;
+        SamplerConnection connection = null;
+        TargetHealth health = null;
+        boolean isAttached = false;
+        try {
+            vm = VirtualMachine.attach(processId);
+            final HotSpotVirtualMachine hotSpotVm = (HotSpotVirtualMachine) vm;
+            
+            // Prefer the binary samples of the sampler agent
+            connection = SamplerConnection.open(hotSpotVm);
+            health = new TargetHealth(processId);
+            synchronized (this) {
+                if (!isClosed) {
+                    hsVm = hotSpotVm;
+                    sampler = connection;
+                    scheduler = new SamplingScheduler(health);
+                    model.setConnected(true);
+                    isAttached = true;
+                }
+            }
+        } finally {
+            if (!isAttached) {
+                if (null != connection) {
+                    connection.close();
+                }
+                if (null != health) {
+                    health.close();
+                }
+                detach(vm);
+            }
+        }
+        LOGGER.info((isAttached ? "Attached to pid=" : "Closed before attach to pid=") + processId);
+    }
+    
+    private static void detach(final VirtualMachine vm) {
+        if (null != vm) {
+            try {
+                vm.detach();
+            } catch (final IOException e) {
+                LOGGER.debug("IOException " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Returns the cost of the acquisition in the target VM, or -1 if the
+     * process is not available any more
+     */
+    private long sample() throws IOException {
+        
+        final MethodFilter filterWhite = model.getFilterWhiteList();
+        final MethodFilter filterBlack = model.getFilterBlackList();
+        if (filterWhite != lastFilterWhite || filterBlack != lastFilterBlack) {
+            lastFilterWhite = filterWhite;
+            lastFilterBlack = filterBlack;
+            filterVersion++;
+        }
+        
+        final Pattern threadFilter = model.getThreadFilter();
+        if (threadFilter != lastThreadFilter) {
+            lastThreadFilter = threadFilter;
+            parser.setThreadFilter(threadFilter);
+            if (null != sampler) {
+                sampler.setThreadFilter(threadFilter);
+            }
+        }
+        
+        final boolean isCpuMode = model.isCpuMode();
+        if (isCpuMode != lastCpuMode) {
+            lastCpuMode = isCpuMode;
+            parser.setCpuMode(isCpuMode);
+            if (null != sampler) {
+                sampler.setCpuMode(isCpuMode);
+            }
+        }
+        
+        scheduler.startAcquisition();
+        if (null != sampler) {
+            try {
+                appendStacks(sampler, filterWhite, filterBlack);
+                return sampler.getSampleCostNanos();
+            } catch (final IOException e) {
+                LOGGER.debug("IOException " + e.getMessage());
+                return -1L;
+            }
+        }
+        final long startNanos = System.nanoTime();
+        try (final InputStream in = hsVm.remoteDataDump(new Object[0])) {
+            parser.start(in);
+            appendStacks(parser, filterWhite, filterBlack);
+            return System.nanoTime() - startNanos;
+        } catch (final IOException e) {
+            LOGGER.debug("IOException " + e.getMessage());
+            return -1L;
+        }
+    }
+    
+    /**
+     * Appends the stacks of the next sample of the sampler agent or thread
+     * dump
+     */
+    private void appendStacks(final StackSource source, final MethodFilter filterWhite, final MethodFilter filterBlack)
+            throws IOException {
+        final FrameDictionary frames = source.getFrames();
+        int depth;
+        while ((depth = source.nextStack()) != StackSource.END_OF_SAMPLE) {
+            final int[] frameIds = source.getStackFrameIds();
+            if (depth > acceptedFrameIds.length) {
+                acceptedFrameIds = new int[depth * 2];
+            }
+            int length = 0;
+            for (int i = 0; i < depth; i++) {
+                byte verdict = frames.getVerdict(frameIds[i], filterVersion);
+                if (FrameDictionary.VERDICT_UNKNOWN == verdict) {
+                    final String fullMethodName = frames.getName(frameIds[i]);
+                    verdict = FrameDictionary.VERDICT_REJECTED;
+                    if (filterWhite.isEmpty() || filterWhite.find(fullMethodName)) {
+                        if (filterBlack.isEmpty() || !filterBlack.find(fullMethodName)) {
+                            if (null != frames.getNode(frameIds[i])) {
+                                verdict = FrameDictionary.VERDICT_ACCEPTED;
+                            }
+                        }
+                    }
+                    frames.setVerdict(frameIds[i], verdict);
+                }
+                if (FrameDictionary.VERDICT_ACCEPTED == verdict) {
+                    acceptedFrameIds[length++] = frameIds[i];
+                }
+            }
+            model.append(frames, acceptedFrameIds, length, true, true);
+        }
+    }
+    
+}
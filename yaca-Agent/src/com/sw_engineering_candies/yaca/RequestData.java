@@ -31,51 +31,66 @@
 
 package com.sw_engineering_candies.yaca;
 
-import java.io.DataInputStream;
-import java.io.InputStream;
-
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
 
+/**
+ * The class holds one parsed request, see RequestParser. The names of the
+ * headers are stored in lower case.
+ */
 public class RequestData {
     
     /**
      * Constants
      */
-    private static final Log LOGGER = LogFactory.getLog(RequestData.class);
+    private static final String PROCESS_PATH = " /process/";
     
     /**
      * Attributes
      */
-    private String firstLine = "";
+    private String firstLine;
+    
+    private final Map<String, String> headers;
     
-    private String body = "";
+    private final String body;
+    
+    /**
+     * Id of the addressed process, or an empty string for the active process
+     */
+    private String processId = "";
     
     /**
      * Constructor
      */
-    public RequestData(InputStream in) {
-        
-        try {
-            StringBuffer buffer = new StringBuffer(1000);
-            final DataInputStream remoteInput = new DataInputStream(in);
-            final byte[] data = new byte[Short.MAX_VALUE];
-            int length = remoteInput.read(data, 0, Short.MAX_VALUE);
-            for (byte b : data) {
-                buffer.append((char) b);
-            }
-            
-            String requestString = buffer.toString();
-            if (!requestString.isEmpty()) {
-                int indexOfNewline = requestString.indexOf("\r\n");
-                if (-1 != indexOfNewline) {
-                    firstLine = requestString.substring(0, indexOfNewline);
-                    body = requestString.substring(requestString.lastIndexOf("\r\n") + 2, length);
-                }
-            }
-        } catch (Exception ex) {
-            LOGGER.warn("Can't parse Header ", ex);
+    public RequestData(String firstLine, Map<String, String> headers, String body) {
+        this.firstLine = firstLine;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+        extractProcessId();
+    }
+    
+    /**
+     * The connection is kept alive for the next request, if the client
+     * doesn't close it. HTTP/1.0 closes the connection by default.
+     */
+    public boolean isKeepAlive() {
+        final String connection = getHeader("connection");
+        if (firstLine.endsWith("HTTP/1.0")) {
+            return "keep-alive".equalsIgnoreCase(connection);
         }
+        return !"close".equalsIgnoreCase(connection);
+    }
+    
+    /**
+     * Returns the value of the header, or null if it is missing
+     */
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+    
+    public Map<String, String> getHeaders() {
+        return headers;
     }
     
     public String getBody() {
@@ -86,8 +101,53 @@ public class RequestData {
         return firstLine;
     }
     
+    public String getProcessId() {
+        return processId;
+    }
+    
+    /**
+     * Returns the value of a query parameter of the first line, e.g. for
+     * "GET /process?since=42 HTTP/1.1", or an empty string
+     */
+    public String getParameter(String name) {
+        final int indexOfQuery = firstLine.indexOf('?');
+        if (-1 != indexOfQuery) {
+            int indexOfEnd = firstLine.indexOf(' ', indexOfQuery);
+            if (-1 == indexOfEnd) {
+                indexOfEnd = firstLine.length();
+            }
+            for (String parameter : firstLine.substring(indexOfQuery + 1, indexOfEnd).split("&")) {
+                final int indexOfEquals = parameter.indexOf('=');
+                if (indexOfEquals > 0 && parameter.substring(0, indexOfEquals).equals(name)) {
+                    return parameter.substring(indexOfEquals + 1);
+                }
+            }
+        }
+        return "";
+    }
+    
     public boolean isStartingWith(String string) {
         return getFirstLine().startsWith(string);
     }
     
+    /**
+     * A process can be addressed by its id, e.g. "GET /process/1234/tree". The
+     * id is removed from the first line, so the request matches the same
+     * resource as for the active process, e.g. "GET /process/tree".
+     */
+    private void extractProcessId() {
+        final int start = firstLine.indexOf(PROCESS_PATH);
+        if (-1 != start) {
+            final int idStart = start + PROCESS_PATH.length();
+            int idEnd = idStart;
+            while (idEnd < firstLine.length() && Character.isDigit(firstLine.charAt(idEnd))) {
+                idEnd++;
+            }
+            if (idEnd > idStart && (idEnd == firstLine.length() || "/? ".indexOf(firstLine.charAt(idEnd)) != -1)) {
+                processId = firstLine.substring(idStart, idEnd);
+                firstLine = firstLine.substring(0, start) + " /process" + firstLine.substring(idEnd);
+            }
+        }
+    }
+    
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The class parses the requests of one connection. The received bytes are
+ * collected in a buffer and parsed step by step, so a request may arrive in
+ * several parts and the bytes of a following (pipelined) request stay in the
+ * buffer for the next call. The buffers are taken from a pool and given back
+ * when the connection is closed.
+ */
+public class RequestParser implements Closeable {
+    
+    /**
+     * Constants
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+    
+    private static final int MAXIMUM_BODY_LENGTH = Short.MAX_VALUE;
+    
+    private static final BlockingQueue<ByteBuffer> BUFFER_POOL = new ArrayBlockingQueue<ByteBuffer>(64);
+    
+    private enum State {
+        FIRST_LINE, HEADERS, BODY
+    }
+    
+    /**
+     * Attributes
+     */
+    private final InputStream in;
+    
+    /**
+     * Holds the received bytes between position and limit, which are not yet
+     * parsed
+     */
+    private ByteBuffer buffer;
+    
+    private State state;
+    
+    private String firstLine;
+    
+    private Map<String, String> headers;
+    
+    private int contentLength;
+    
+    /**
+     * Constructor
+     */
+    public RequestParser(final InputStream in) {
+        this.in = in;
+        final ByteBuffer pooledBuffer = BUFFER_POOL.poll();
+        this.buffer = (null != pooledBuffer) ? pooledBuffer : ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+    
+    /**
+     * Methods
+     */
+    
+    /**
+     * Returns the next request, or null if the client has closed the
+     * connection between two requests
+     */
+    public RequestData next() throws IOException {
+        state = State.FIRST_LINE;
+        firstLine = null;
+        headers = null;
+        contentLength = 0;
+        while (true) {
+            switch (state) {
+                case FIRST_LINE: {
+                    final String line = nextLine();
+                    if (null == line) {
+                        if (!fill()) {
+                            return null;
+                        }
+                    } else if (!line.isEmpty()) {
+                        // Empty lines between requests are ignored
+                        firstLine = line;
+                        headers = new HashMap<String, String>();
+                        state = State.HEADERS;
+                    }
+                    break;
+                }
+                case HEADERS: {
+                    final String line = nextLine();
+                    if (null == line) {
+                        if (!fill()) {
+                            throw new IOException("Incomplete header of request " + firstLine);
+                        }
+                    } else if (line.isEmpty()) {
+                        contentLength = parseContentLength(headers.get("content-length"));
+                        state = State.BODY;
+                    } else {
+                        final int indexOfColon = line.indexOf(':');
+                        if (indexOfColon > 0) {
+                            headers.put(line.substring(0, indexOfColon).trim().toLowerCase(Locale.ENGLISH),
+                                    line.substring(indexOfColon + 1).trim());
+                        }
+                    }
+                    break;
+                }
+                case BODY: {
+                    return new RequestData(firstLine, headers, readBody());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Is true if received bytes of a following request are waiting, so the
+     * response needs not to be flushed yet
+     */
+    public boolean isDataAvailable() throws IOException {
+        return buffer.hasRemaining() || in.available() > 0;
+    }
+    
+    /**
+     * Gives the buffer back to the pool, the stream is closed with the socket
+     */
+    @Override
+    public void close() {
+        if (null != buffer) {
+            buffer.clear();
+            BUFFER_POOL.offer(buffer);
+            buffer = null;
+        }
+    }
+    
+    /**
+     * Returns the next complete line of the buffer without line end, or null
+     * if the line end has not been received yet
+     */
+    private String nextLine() throws IOException {
+        final byte[] array = buffer.array();
+        final int start = buffer.position();
+        for (int index = start; index < buffer.limit(); index++) {
+            if (array[index] == '\n') {
+                buffer.position(index + 1);
+                final int end = (index > start && array[index - 1] == '\r') ? index - 1 : index;
+                return new String(array, start, end - start, StandardCharsets.ISO_8859_1);
+            }
+        }
+        if (buffer.remaining() == buffer.capacity()) {
+            throw new IOException("Line of request is too long");
+        }
+        return null;
+    }
+    
+    /**
+     * Reads more bytes behind the not yet parsed bytes, returns false at the
+     * end of the stream
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+        try {
+            final int count = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (count > 0) {
+                buffer.position(buffer.position() + count);
+            }
+            return count >= 0;
+        } finally {
+            buffer.flip();
+        }
+    }
+    
+    private String readBody() throws IOException {
+        
+        // In most cases the body is already in the buffer
+        if (buffer.remaining() >= contentLength) {
+            final String body = new String(buffer.array(), buffer.position(), contentLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + contentLength);
+            return body;
+        }
+        
+        // Read the rest of a larger body directly from the stream
+        final byte[] data = new byte[contentLength];
+        int length = buffer.remaining();
+        buffer.get(data, 0, length);
+        while (length < contentLength) {
+            final int count = in.read(data, length, contentLength - length);
+            if (count < 0) {
+                throw new IOException("Incomplete body of request " + firstLine);
+            }
+            length += count;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+    
+    private int parseContentLength(final String value) throws IOException {
+        if (null == value) {
+            return 0;
+        }
+        try {
+            final int result = Integer.parseInt(value);
+            if (result >= 0 && result <= MAXIMUM_BODY_LENGTH) {
+                return result;
+            }
+        } catch (final NumberFormatException e) {
+            // handled below
+        }
+        throw new IOException("Invalid Content-Length " + value + " of request " + firstLine);
+    }
+    
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sun.tools.attach.HotSpotVirtualMachine;
+
+import com.sun.tools.attach.AgentInitializationException;
+import com.sun.tools.attach.AgentLoadException;
+import com.sw_engineering_candies.yaca.sampler.SamplerAgent;
+
+/**
+ * The class loads the sampler agent into the target VM and receives its
+ * binary stack samples. The frames are defined once by the sampler, so the
+ * stacks are just arrays of frame ids and no text has to be parsed.
+ */
+public class SamplerConnection implements StackSource, Closeable {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(SamplerConnection.class);
+    
+    private static final String SAMPLER_JAR = "YacaSampler.jar";
+    
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final int EXPECTED_NUMBER_OF_FRAMES = 10000;
+    
+    /**
+     * Attributes
+     */
+    private final Socket socket;
+    
+    private final DataInputStream in;
+    
+    private final DataOutputStream out;
+    
+    /**
+     * Dictionary of the frames by id, it grows with each new frame
+     */
+    private final FrameDictionary frames = new FrameDictionary(EXPECTED_NUMBER_OF_FRAMES);
+    
+    /**
+     * Frame ids of the current stack
+     */
+    private int[] stackFrameIds = new int[256];
+    
+    private int remainingStacks = 0;
+    
+    private boolean isInSample = false;
+    
+    /**
+     * Time the sampler needed in the target VM for the last sample
+     */
+    private long sampleCostNanos = 0L;
+    
+    /**
+     * Constructor
+     */
+    private SamplerConnection(final Socket socket, final DataInputStream in) throws IOException {
+        this.socket = socket;
+        this.in = in;
+        this.out = new DataOutputStream(socket.getOutputStream());
+    }
+    
+    /**
+     * Loads the sampler agent into the target VM and waits for its
+     * connection. The result is null, if the sampler is not available, so the
+     * caller can fall back to thread dumps.
+     */
+    public static SamplerConnection open(final HotSpotVirtualMachine vm) {
+        final File samplerJar = findSamplerJar();
+        if (null == samplerJar || !samplerJar.isFile()) {
+            LOGGER.info("Sampler agent " + SAMPLER_JAR + " not found, use thread dumps");
+            return null;
+        }
+        
+        Socket socket = null;
+        try (final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            serverSocket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            
+            // The token ensures that just the loaded sampler is accepted
+            final long token = new SecureRandom().nextLong();
+            vm.loadAgent(samplerJar.getAbsolutePath(), serverSocket.getLocalPort() + "," + token);
+            
+            socket = serverSocket.accept();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            if (in.readLong() != token) {
+                throw new IOException("Invalid token of sampler");
+            }
+            LOGGER.info("Sampler agent connected at port " + serverSocket.getLocalPort());
+            return new SamplerConnection(socket, in);
+        } catch (AgentLoadException | AgentInitializationException | IOException e) {
+            LOGGER.warn("Sampler agent not available, use thread dumps: " + e.getMessage());
+            if (null != socket) {
+                try {
+                    socket.close();
+                } catch (IOException ex) {
+                    LOGGER.debug("IOException " + ex.getMessage());
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * The jar is expected next to the jar of the Yaca-Agent, if it is not
+     * given by the system property yaca.samplerJar
+     */
+    private static File findSamplerJar() {
+        final String path = System.getProperty("yaca.samplerJar");
+        if (null != path) {
+            return new File(path);
+        }
+        try {
+            final File location = new File(SamplerConnection.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return new File(location.isDirectory() ? location : location.getParentFile(), SAMPLER_JAR);
+        } catch (URISyntaxException | SecurityException e) {
+            LOGGER.debug("Location unknown " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Requests the next sample from the sampler at the start of a sample, the
+     * call blocks until the sampler sends it
+     */
+    @Override
+    public int nextStack() throws IOException {
+        if (0 == remainingStacks) {
+            if (isInSample) {
+                isInSample = false;
+                return END_OF_SAMPLE;
+            }
+            out.write(SamplerAgent.REQUEST_SAMPLE);
+            out.flush();
+            readSampleHeader();
+            if (0 == remainingStacks) {
+                isInSample = false;
+                return END_OF_SAMPLE;
+            }
+        }
+        remainingStacks--;
+        final int depth = in.readInt();
+        if (depth > stackFrameIds.length) {
+            stackFrameIds = Arrays.copyOf(stackFrameIds, Math.max(depth, stackFrameIds.length * 2));
+        }
+        for (int index = 0; index < depth; index++) {
+            stackFrameIds[index] = in.readInt();
+        }
+        return depth;
+    }
+    
+    @Override
+    public int[] getStackFrameIds() {
+        return stackFrameIds;
+    }
+    
+    @Override
+    public FrameDictionary getFrames() {
+        return frames;
+    }
+    
+    public long getSampleCostNanos() {
+        return sampleCostNanos;
+    }
+    
+    /**
+     * In CPU mode the sampler takes just the stacks of running threads
+     */
+    public void setCpuMode(final boolean isCpuMode) throws IOException {
+        out.write(SamplerAgent.SET_CPU_MODE);
+        out.writeBoolean(isCpuMode);
+        out.flush();
+    }
+    
+    /**
+     * The sampler takes just the stacks of the threads with a matching name,
+     * or of all threads if the pattern is null
+     */
+    public void setThreadFilter(final Pattern threadFilter) throws IOException {
+        out.write(SamplerAgent.SET_THREAD_FILTER);
+        out.writeUTF((null == threadFilter) ? "" : threadFilter.pattern());
+        out.flush();
+    }
+    
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.debug("IOException " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Reads the new frames and the start of the next sample
+     */
+    private void readSampleHeader() throws IOException {
+        while (true) {
+            final byte type = in.readByte();
+            if (SamplerAgent.FRAME_RECORD == type) {
+                final int frameId = in.readInt();
+                final String fullMethodName = in.readUTF() + '.' + in.readUTF();
+                if (frameId != frames.intern(fullMethodName)) {
+                    throw new IOException("Unexpected frame id " + frameId);
+                }
+            } else if (SamplerAgent.SAMPLE_RECORD == type) {
+                sampleCostNanos = in.readLong();
+                remainingStacks = in.readInt();
+                isInSample = true;
+                return;
+            } else {
+                throw new IOException("Unknown record type " + type);
+            }
+        }
+    }
+    
+}
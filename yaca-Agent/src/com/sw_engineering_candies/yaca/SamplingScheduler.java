@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The class paces the acquisition of samples of one process. The cost of each
+ * acquisition in the target VM is measured and the interval is adjusted, so
+ * that the time spent for sampling stays within the overhead budget, e.g. 1%
+ * of the wall time. The budget is shared equally by all sampled processes.
+ * The interval is stretched while the target VM is busy and a random
+ * jitter avoids sampling in lockstep with periodic work of the target VM.
+ */
+public class SamplingScheduler {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(SamplingScheduler.class);
+    
+    /**
+     * Fraction of the wall time all sampled VMs together may spend for
+     * sampling, it can be set with the system property yaca.overheadBudget
+     */
+    private static final double OVERHEAD_BUDGET = Double.parseDouble(System.getProperty("yaca.overheadBudget", "0.01"));
+    
+    private static final long MINIMUM_INTERVAL_NANOS = 10000000L;
+    
+    private static final long MAXIMUM_INTERVAL_NANOS = 10000000000L;
+    
+    /**
+     * The interval is varied randomly by up to this fraction
+     */
+    private static final double JITTER = 0.2;
+    
+    /**
+     * Weight of the newest value in the moving averages of cost and period
+     */
+    private static final double SMOOTHING = 0.1;
+    
+    /**
+     * Attributes
+     */
+    private final TargetHealth targetHealth;
+    
+    private double averageCostNanos = -1.0;
+    
+    private double averagePeriodNanos = -1.0;
+    
+    private long lastStartNanos = 0L;
+    
+    private long intervalNanos = MINIMUM_INTERVAL_NANOS;
+    
+    private boolean isFirstAcquisition = true;
+    
+    /**
+     * Constructor
+     */
+    public SamplingScheduler(final TargetHealth targetHealth) {
+        this.targetHealth = targetHealth;
+    }
+    
+    /**
+     * Marks the start of an acquisition, the time between two starts is the
+     * effective sampling period
+     */
+    public void startAcquisition() {
+        final long now = System.nanoTime();
+        if (lastStartNanos != 0L) {
+            averagePeriodNanos = average(averagePeriodNanos, now - lastStartNanos);
+        }
+        lastStartNanos = now;
+    }
+    
+    /**
+     * Calculates the next interval from the cost of the last acquisition and
+     * returns the delay until the next acquisition is due
+     */
+    public long getNextDelayNanos(final long costNanos, final int numberOfProcesses) {
+        // The first acquisition includes the warm up, e.g. of the sampler
+        if (isFirstAcquisition) {
+            isFirstAcquisition = false;
+        } else {
+            averageCostNanos = average(averageCostNanos, Math.max(0L, costNanos));
+        }
+        
+        // With the interval i and the cost c the overhead is c / (c + i)
+        final double budget = OVERHEAD_BUDGET / Math.max(1, numberOfProcesses);
+        final double budgetInterval = averageCostNanos * (1.0 - budget) / budget;
+        final double stretchedInterval = budgetInterval * targetHealth.getLoadFactor();
+        intervalNanos = Math.max(MINIMUM_INTERVAL_NANOS, Math.min(MAXIMUM_INTERVAL_NANOS, (long) stretchedInterval));
+        
+        final double jitter = 1.0 + JITTER * (2.0 * ThreadLocalRandom.current().nextDouble() - 1.0);
+        return (long) (intervalNanos * jitter);
+    }
+    
+    public SamplingStatistics getStatistics() {
+        if (averagePeriodNanos <= 0.0) {
+            return new SamplingStatistics(0.0, intervalNanos / 1000000L, 0.0, targetHealth.getLoad());
+        }
+        final double overhead = Math.min(1.0, Math.max(0.0, averageCostNanos) / averagePeriodNanos);
+        return new SamplingStatistics(1e9 / averagePeriodNanos, intervalNanos / 1000000L, overhead, targetHealth.getLoad());
+    }
+    
+    public void close() {
+        targetHealth.close();
+        LOGGER.debug("Closed with " + getStatistics());
+    }
+    
+    private static double average(final double average, final long value) {
+        return (average < 0.0) ? value : average + SMOOTHING * (value - average);
+    }
+    
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+
+/**
+ * The class is an immutable view of the effective sampling rate, the
+ * measured overhead in the target VM and the load of the target VM.
+ */
+public final class SamplingStatistics {
+    
+    /**
+     * Constants
+     */
+    public static final SamplingStatistics NONE = new SamplingStatistics(0.0, 0L, 0.0, 0.0);
+    
+    /**
+     * Attributes
+     */
+    private final double rate;
+    
+    private final long intervalMillis;
+    
+    private final double overhead;
+    
+    private final double load;
+    
+    /**
+     * Constructor
+     */
+    public SamplingStatistics(final double rate, final long intervalMillis, final double overhead, final double load) {
+        this.rate = rate;
+        this.intervalMillis = intervalMillis;
+        this.overhead = overhead;
+        this.load = load;
+    }
+    
+    /**
+     * Methods
+     */
+    public double getRate() {
+        return rate;
+    }
+    
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+    
+    public double getOverhead() {
+        return overhead;
+    }
+    
+    public double getLoad() {
+        return load;
+    }
+    
+    public void writeJSON(final JsonStreamWriter fw) throws IOException {
+        fw.append("{\"rate\":");
+        appendDecimal(fw, rate);
+        fw.append(", \"interval\":").append(intervalMillis);
+        fw.append(", \"overhead\":");
+        appendDecimal(fw, overhead);
+        fw.append(", \"load\":");
+        appendDecimal(fw, load);
+        fw.append("}");
+    }
+    
+    /**
+     * Writes a positive value with three decimal places
+     */
+    private static void appendDecimal(final JsonStreamWriter fw, final double value) throws IOException {
+        final long thousandths = Math.round(Math.max(0.0, value) * 1000.0);
+        fw.append(thousandths / 1000).append('.');
+        final long fraction = thousandths % 1000;
+        if (fraction < 100) {
+            fw.append('0');
+        }
+        if (fraction < 10) {
+            fw.append('0');
+        }
+        fw.append(fraction);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("rate=%.1f/s interval=%dms overhead=%.2f%% load=%.2f", rate, intervalMillis, overhead * 100.0, load);
+    }
+    
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Immutable content of a file of the web page. The file is read once from
+ * the class path and compressed in advance, the ETag is a hash of the
+ * content, so a client can validate its cached copy without transfer.
+ */
+public class StaticResource {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(StaticResource.class);
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    /**
+     * Attributes
+     */
+    private final String mimeType;
+    
+    private final byte[] content;
+    
+    /**
+     * Compressed content, or null if compression doesn't reduce the size
+     */
+    private final byte[] gzipContent;
+    
+    private final String eTag;
+    
+    private final String gzipETag;
+    
+    /**
+     * Constructor
+     */
+    public StaticResource(String mimeType, byte[] content) {
+        this.mimeType = mimeType;
+        this.content = content.clone();
+        final byte[] compressed = compress(content);
+        this.gzipContent = (compressed.length < content.length) ? compressed : null;
+        final String hash = hash(content);
+        this.eTag = "\"" + hash + "\"";
+        this.gzipETag = "\"" + hash + "-gzip\"";
+    }
+    
+    /**
+     * Methods
+     */
+    
+    /**
+     * Reads the resource from the class path, a missing resource results in
+     * empty content
+     */
+    public static StaticResource load(String resource, String mimeType) {
+        byte[] content = new byte[0];
+        try (InputStream ins = StaticResource.class.getResourceAsStream("/" + resource)) {
+            if (null == ins) {
+                LOGGER.error("Can't find resource " + resource);
+            } else {
+                final ByteArrayOutputStream outs = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = ins.read(buffer)) != -1) {
+                    outs.write(buffer, 0, read);
+                }
+                content = outs.toByteArray();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Can't read bytes from resource " + resource, e);
+        }
+        return new StaticResource(mimeType, content);
+    }
+    
+    public String getMimeType() {
+        return mimeType;
+    }
+    
+    /**
+     * Returns the content for the client, the array must not be changed
+     */
+    public byte[] getContent(boolean isGzipAccepted) {
+        return (isGzipAccepted && null != gzipContent) ? gzipContent : content;
+    }
+    
+    public boolean isGzipUsed(boolean isGzipAccepted) {
+        return isGzipAccepted && null != gzipContent;
+    }
+    
+    public String getETag(boolean isGzipAccepted) {
+        return isGzipUsed(isGzipAccepted) ? gzipETag : eTag;
+    }
+    
+    /**
+     * Is true if the value of the header If-None-Match contains the ETag of
+     * the content for the client
+     */
+    public boolean isMatching(String ifNoneMatch, boolean isGzipAccepted) {
+        if (null == ifNoneMatch) {
+            return false;
+        }
+        final String expected = getETag(isGzipAccepted);
+        for (String value : ifNoneMatch.split(",")) {
+            value = value.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || expected.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static byte[] compress(byte[] content) {
+        final ByteArrayOutputStream outs = new ByteArrayOutputStream(content.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(outs)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            LOGGER.warn("Can't compress resource", e);
+            return content;
+        }
+        return outs.toByteArray();
+    }
+    
+    private static String hash(byte[] content) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            final StringBuilder result = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                result.append(HEX_DIGITS[(digest[i] >> 4) & 0xF]).append(HEX_DIGITS[digest[i] & 0xF]);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class maps keys to dense int ids. The keys are stored in an open
+ * addressing hash table with linear probing and the ids are assigned in the
+ * order of the first appearance of a key, so lookup and assignment of an id
+ * don't depend on the number of stored keys.
+ */
+public class SymbolTable {
+    
+    /**
+     * Constants
+     */
+    public static final int NO_ID = -1;
+    
+    private static final int MINIMUM_CAPACITY = 16;
+    
+    /**
+     * Hash table with keys and the related ids, the length is a power of two
+     */
+    private String[] slotKeys;
+    
+    private int[] slotIds;
+    
+    /**
+     * Number of assigned ids
+     */
+    private int size = 0;
+    
+    /**
+     * Constructor
+     */
+    public SymbolTable(final int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        slotKeys = new String[capacity];
+        slotIds = new int[capacity];
+    }
+    
+    /**
+     * Returns the id of the key and assigns the next free id if the key is
+     * unknown
+     */
+    public int intern(final String key) {
+        final int mask = slotKeys.length - 1;
+        int slot = indexFor(key, mask);
+        String current;
+        while ((current = slotKeys[slot]) != null) {
+            if (current.equals(key)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        final int id = size;
+        slotKeys[slot] = key;
+        slotIds[slot] = id;
+        size++;
+        
+        // Keep load factor below 0.5 to have short probe sequences
+        if (size * 2 > slotKeys.length) {
+            rehash(slotKeys.length * 2);
+        }
+        return id;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public void clear() {
+        Arrays.fill(slotKeys, null);
+        size = 0;
+    }
+    
+    private void rehash(final int capacity) {
+        final String[] oldKeys = slotKeys;
+        final int[] oldIds = slotIds;
+        slotKeys = new String[capacity];
+        slotIds = new int[capacity];
+        final int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = indexFor(oldKeys[i], mask);
+                while (slotKeys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                slotKeys[slot] = oldKeys[i];
+                slotIds[slot] = oldIds[i];
+            }
+        }
+    }
+    
+    private static int indexFor(final String key, final int mask) {
+        // Spread the bits of the hash code, because similar method names have
+        // similar hash codes
+        final int hash = key.hashCode() * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+    
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sun.jvmstat.monitor.Monitor;
+import sun.jvmstat.monitor.MonitorException;
+import sun.jvmstat.monitor.MonitoredHost;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.VmIdentifier;
+
+/**
+ * The class watches the load of the target VM, so the sampling can back off
+ * while the target is busy. The CPU time of the process is read from
+ * /proc/[pid]/stat on Linux and the time of the garbage collectors from the
+ * jvmstat counters of the target VM. Both are optional.
+ */
+public class TargetHealth {
+    
+    /**
+     * Constants
+     */
+    private static final Log LOGGER = LogFactory.getLog(TargetHealth.class);
+    
+    private static final long UPDATE_INTERVAL_NANOS = 1000000000L;
+    
+    /**
+     * Clock ticks per second of the CPU times in /proc, USER_HZ is 100 on
+     * Linux
+     */
+    private static final double CLOCK_TICKS_PER_SECOND = 100.0;
+    
+    /**
+     * Above this load the interval of the sampling is stretched, up to the
+     * factor MAXIMUM_LOAD_FACTOR at full load
+     */
+    private static final double LOAD_THRESHOLD = 0.8;
+    
+    private static final double MAXIMUM_LOAD_FACTOR = 5.0;
+    
+    /**
+     * Attributes
+     */
+    private final Path statPath;
+    
+    private MonitoredHost monitoredHost = null;
+    
+    private MonitoredVm monitoredVm = null;
+    
+    private List<Monitor> collectorTimes = Collections.emptyList();
+    
+    private long timerFrequency = 1L;
+    
+    private long lastUpdateNanos = 0L;
+    
+    private long lastCpuTicks = -1L;
+    
+    private long lastCollectorTicks = -1L;
+    
+    private double load = 0.0;
+    
+    /**
+     * Constructor
+     */
+    public TargetHealth(final String processId) {
+        statPath = Paths.get("/proc", processId, "stat");
+        try {
+            monitoredHost = MonitoredHost.getMonitoredHost("localhost");
+            monitoredVm = monitoredHost.getMonitoredVm(new VmIdentifier("//" + processId));
+            collectorTimes = monitoredVm.findByPattern("sun\\.gc\\.collector\\.\\d+\\.time");
+            final Monitor frequency = monitoredVm.findByName("sun.os.hrt.frequency");
+            if (null != frequency) {
+                timerFrequency = ((Number) frequency.getValue()).longValue();
+            }
+        } catch (URISyntaxException | MonitorException e) {
+            LOGGER.debug("No jvmstat counters for pid=" + processId + " " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Returns the factor to stretch the sampling interval, it is one as long
+     * as the target is not busy. The load is updated at most once a second.
+     */
+    public double getLoadFactor() {
+        final long now = System.nanoTime();
+        if (now - lastUpdateNanos >= UPDATE_INTERVAL_NANOS) {
+            update(now);
+        }
+        if (load <= LOAD_THRESHOLD) {
+            return 1.0;
+        }
+        return 1.0 + (MAXIMUM_LOAD_FACTOR - 1.0) * Math.min(1.0, (load - LOAD_THRESHOLD) / (1.0 - LOAD_THRESHOLD));
+    }
+    
+    /**
+     * The load is the CPU usage of the process per available core or ten
+     * times the fraction of time in garbage collection, whatever is higher
+     */
+    public double getLoad() {
+        return load;
+    }
+    
+    public void close() {
+        if (null != monitoredVm) {
+            try {
+                monitoredHost.detach(monitoredVm);
+            } catch (MonitorException e) {
+                LOGGER.debug("MonitorException " + e.getMessage());
+            }
+            monitoredVm = null;
+        }
+    }
+    
+    private void update(final long now) {
+        final double elapsedSeconds = (now - lastUpdateNanos) / 1e9;
+        final boolean isFirst = 0L == lastUpdateNanos;
+        lastUpdateNanos = now;
+        
+        double cpuUsage = 0.0;
+        final long cpuTicks = readCpuTicks();
+        if (cpuTicks >= 0 && lastCpuTicks >= 0 && !isFirst) {
+            cpuUsage = (cpuTicks - lastCpuTicks) / CLOCK_TICKS_PER_SECOND / elapsedSeconds
+                    / Runtime.getRuntime().availableProcessors();
+        }
+        lastCpuTicks = cpuTicks;
+        
+        double collectorUsage = 0.0;
+        final long collectorTicks = readCollectorTicks();
+        if (collectorTicks >= 0 && lastCollectorTicks >= 0 && !isFirst) {
+            collectorUsage = (collectorTicks - lastCollectorTicks) / (double) timerFrequency / elapsedSeconds;
+        }
+        lastCollectorTicks = collectorTicks;
+        
+        load = Math.min(1.0, Math.max(cpuUsage, 10.0 * collectorUsage));
+    }
+    
+    /**
+     * Sum of user and system time of the process in clock ticks, or -1 if
+     * not available
+     */
+    private long readCpuTicks() {
+        try {
+            final String stat = new String(Files.readAllBytes(statPath), StandardCharsets.US_ASCII);
+            
+            // The name of the command may contain blanks, so the fields are
+            // counted after it. The fields utime and stime are the 14th and
+            // 15th field.
+            final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+        } catch (IOException | RuntimeException e) {
+            return -1L;
+        }
+    }
+    
+    private long readCollectorTicks() {
+        if (null == monitoredVm || collectorTimes.isEmpty()) {
+            return -1L;
+        }
+        long result = 0L;
+        for (final Monitor monitor : collectorTimes) {
+            result += ((Number) monitor.getValue()).longValue();
+        }
+        return result;
+    }
+    
+}
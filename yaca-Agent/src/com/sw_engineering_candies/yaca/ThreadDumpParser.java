@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * The class parses thread dumps of the attach mechanism. The lines are
+ * scanned in a reusable byte buffer and the method of each frame line like
+ * '\tat java.lang.Thread.run(Thread.java:745)' is resolved by the frame
+ * dictionary as a slice of this buffer. So the parser allocates just for
+ * frames, which are seen the first time. With a thread filter the frames of
+ * the threads with other names are skipped. In CPU mode the frames of the
+ * threads, which are not in the state RUNNABLE, are skipped.
+ */
+public class ThreadDumpParser implements StackSource {
+    
+    /**
+     * Constants
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final int EXPECTED_NUMBER_OF_FRAMES = 10000;
+    
+    private static final int EXPECTED_LINE_LENGTH = 80;
+    
+    private static final int MAXIMUM_NUMBER_OF_LINES = 64 * 1024;
+    
+    private static final int EXPECTED_NUMBER_OF_THREADS = 256;
+    
+    private static final int EXPECTED_THREAD_NAME_LENGTH = 32;
+    
+    private static final int MAXIMUM_NUMBER_OF_THREAD_NAMES = 4 * 1024;
+    
+    private static final byte[] STATE_PREFIX = "   java.lang.Thread.State: ".getBytes(StandardCharsets.US_ASCII);
+    
+    private static final byte[] STATE_RUNNABLE = "RUNNABLE".getBytes(StandardCharsets.US_ASCII);
+    
+    /**
+     * Attributes
+     */
+    private final FrameDictionary frames = new FrameDictionary(EXPECTED_NUMBER_OF_FRAMES);
+    
+    /**
+     * Cache of the raw frame lines, so a known line is resolved to its frame
+     * id by one lookup. The same method appears in lines with different line
+     * numbers, so the cache is bounded and cleared when it is full.
+     */
+    private final ByteSliceTable lineIds = new ByteSliceTable(EXPECTED_NUMBER_OF_FRAMES, EXPECTED_LINE_LENGTH);
+    
+    private int[] lineFrameIds = new int[EXPECTED_NUMBER_OF_FRAMES];
+    
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    
+    /**
+     * Start of the next line in the buffer
+     */
+    private int position = 0;
+    
+    /**
+     * End of the read bytes in the buffer
+     */
+    private int limit = 0;
+    
+    private InputStream in = null;
+    
+    private boolean isEndOfStream = true;
+    
+    /**
+     * Frame ids of the current stack
+     */
+    private int[] stackFrameIds = new int[256];
+    
+    /**
+     * Pattern of the names of the analyzed threads, all threads are analyzed
+     * if it is null
+     */
+    private Pattern threadFilter = null;
+    
+    private boolean isThreadSelected = true;
+    
+    /**
+     * Cache of the verdicts of the thread filter by thread name, so a known
+     * thread is selected without allocation. It is cleared when the filter
+     * changes or when it is full.
+     */
+    private final ByteSliceTable threadNameIds = new ByteSliceTable(EXPECTED_NUMBER_OF_THREADS,
+            EXPECTED_THREAD_NAME_LENGTH);
+    
+    private boolean[] threadNameVerdicts = new boolean[EXPECTED_NUMBER_OF_THREADS];
+    
+    /**
+     * In CPU mode just the stacks of running threads are analyzed
+     */
+    private boolean isCpuMode = false;
+    
+    /**
+     * Starts to parse the next thread dump, the frame dictionary is kept
+     */
+    public void start(final InputStream in) {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        isEndOfStream = false;
+        isThreadSelected = true;
+    }
+    
+    public void setThreadFilter(final Pattern threadFilter) {
+        this.threadFilter = threadFilter;
+        threadNameIds.clear();
+    }
+    
+    public void setCpuMode(final boolean isCpuMode) {
+        this.isCpuMode = isCpuMode;
+    }
+    
+    /**
+     * Each thread starts with a header line like '"main" #1 prio=5 os_prio=0
+     * tid=0x... nid=0x...' and ends with an empty line, so the frames of two
+     * threads are never linked
+     */
+    @Override
+    public int nextStack() throws IOException {
+        int depth = 0;
+        int lineEnd;
+        while ((lineEnd = nextLineEnd()) >= 0) {
+            final int lineStart = position;
+            position = Math.min(lineEnd + 1, limit);
+            int length = lineEnd - lineStart;
+            if (length > 0 && buffer[lineStart + length - 1] == '\r') {
+                length--;
+            }
+            if (length == 0 || buffer[lineStart] == '"') {
+                if (length > 0) {
+                    isThreadSelected = isSelectedThread(lineStart, length);
+                }
+                if (depth > 0) {
+                    return depth;
+                }
+            } else if (isCpuMode && isThreadSelected && isStartingWith(lineStart, length, STATE_PREFIX)) {
+                // The state line follows the header, before the first frame
+                isThreadSelected = isStartingWith(lineStart + STATE_PREFIX.length, length - STATE_PREFIX.length, STATE_RUNNABLE);
+            } else if (isThreadSelected && length > 10 && isFrameLine(lineStart)) {
+                final int frameId = resolveFrame(lineStart, length);
+                if (FrameDictionary.NO_ID != frameId) {
+                    if (depth == stackFrameIds.length) {
+                        stackFrameIds = Arrays.copyOf(stackFrameIds, depth * 2);
+                    }
+                    stackFrameIds[depth++] = frameId;
+                }
+            }
+        }
+        return (depth > 0) ? depth : END_OF_SAMPLE;
+    }
+    
+    @Override
+    public int[] getStackFrameIds() {
+        return stackFrameIds;
+    }
+    
+    @Override
+    public FrameDictionary getFrames() {
+        return frames;
+    }
+    
+    /**
+     * Returns the index of the line feed of the next line, or the limit for a
+     * last line without line feed, or -1 at the end of the stream
+     */
+    private int nextLineEnd() throws IOException {
+        int index = position;
+        while (true) {
+            while (index < limit) {
+                if (buffer[index] == '\n') {
+                    return index;
+                }
+                index++;
+            }
+            if (isEndOfStream) {
+                return (position < limit) ? limit : -1;
+            }
+            
+            // Move the incomplete line to the start and read more bytes
+            if (position > 0) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                index -= position;
+                limit -= position;
+                position = 0;
+            } else if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            final int count = in.read(buffer, limit, buffer.length - limit);
+            if (count < 0) {
+                isEndOfStream = true;
+            } else {
+                limit += count;
+            }
+        }
+    }
+    
+    /**
+     * The name of the thread is enclosed by the first and the last quote of
+     * the header line
+     */
+    private boolean isSelectedThread(final int lineStart, final int length) {
+        if (null == threadFilter) {
+            return true;
+        }
+        int end = lineStart + length - 1;
+        while (end > lineStart && buffer[end] != '"') {
+            end--;
+        }
+        final int nameStart = lineStart + 1;
+        final int nameLength = Math.max(0, end - nameStart);
+        
+        // The filter is matched just for the first header of a thread name
+        if (threadNameIds.size() == MAXIMUM_NUMBER_OF_THREAD_NAMES) {
+            threadNameIds.clear();
+        }
+        final int numberOfNames = threadNameIds.size();
+        final int nameId = threadNameIds.intern(buffer, nameStart, nameLength);
+        if (nameId == numberOfNames) {
+            if (nameId == threadNameVerdicts.length) {
+                threadNameVerdicts = Arrays.copyOf(threadNameVerdicts, nameId * 2);
+            }
+            final String threadName = new String(buffer, nameStart, nameLength, StandardCharsets.UTF_8);
+            threadNameVerdicts[nameId] = threadFilter.matcher(threadName).matches();
+        }
+        return threadNameVerdicts[nameId];
+    }
+    
+    private boolean isStartingWith(final int lineStart, final int length, final byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int index = 0; index < prefix.length; index++) {
+            if (buffer[lineStart + index] != prefix[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean isFrameLine(final int lineStart) {
+        return buffer[lineStart] == '\t' && buffer[lineStart + 1] == 'a' && buffer[lineStart + 2] == 't'
+                && buffer[lineStart + 3] == ' ';
+    }
+    
+    /**
+     * A known line is found with one lookup, a new line gets the next free id
+     * of the cache
+     */
+    private int resolveFrame(final int lineStart, final int length) {
+        if (lineIds.size() == MAXIMUM_NUMBER_OF_LINES) {
+            lineIds.clear();
+        }
+        final int numberOfLines = lineIds.size();
+        final int lineId = lineIds.intern(buffer, lineStart, length);
+        if (lineId == numberOfLines) {
+            if (lineId == lineFrameIds.length) {
+                lineFrameIds = Arrays.copyOf(lineFrameIds, lineId * 2);
+            }
+            lineFrameIds[lineId] = parseFrame(lineStart, length);
+        }
+        return lineFrameIds[lineId];
+    }
+    
+    /**
+     * Resolves the method name between 'at ' and the last '(' of the line
+     */
+    private int parseFrame(final int lineStart, final int length) {
+        int start = lineStart + 4;
+        int end = lineStart + length - 1;
+        while (end > start && buffer[end] != '(') {
+            end--;
+        }
+        if (end == start) {
+            return FrameDictionary.NO_ID;
+        }
+        
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        return frames.intern(buffer, start, end - start);
+    }
+    
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class holds one primitive timestamp per id, e.g. the time of the last
+ * change of a node. The array grows with the highest used id, so setting a
+ * timestamp doesn't allocate and a reset is a bulk fill.
+ */
+public class TimestampArray {
+    
+    /**
+     * Attributes
+     */
+    private final int initialCapacity;
+    
+    private long[] timestamps;
+    
+    /**
+     * Highest used id plus one
+     */
+    private int size = 0;
+    
+    /**
+     * Constructor
+     */
+    public TimestampArray(final int expectedSize) {
+        initialCapacity = Math.max(expectedSize, 16);
+        timestamps = new long[initialCapacity];
+    }
+    
+    /**
+     * Methods
+     */
+    public void set(final int id, final long timestamp) {
+        if (id >= timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, Math.max(id + 1, timestamps.length * 2));
+        }
+        size = Math.max(size, id + 1);
+        timestamps[id] = timestamp;
+    }
+    
+    /**
+     * Returns a copy of the first timestamps
+     */
+    public long[] copyOf(final int length) {
+        return Arrays.copyOf(timestamps, Math.min(length, timestamps.length));
+    }
+    
+    /**
+     * Renumbers the ids, the timestamps of ids mapped to NO_ID are dropped
+     */
+    public void remap(final int[] newIds) {
+        final long[] oldTimestamps = Arrays.copyOf(timestamps, size);
+        clear();
+        for (int id = 0; id < oldTimestamps.length && id < newIds.length; id++) {
+            if (SymbolTable.NO_ID != newIds[id]) {
+                set(newIds[id], oldTimestamps[id]);
+            }
+        }
+    }
+    
+    /**
+     * Sets all timestamps to zero
+     */
+    public void reset() {
+        Arrays.fill(timestamps, 0, size, 0L);
+    }
+    
+    /**
+     * Sets all timestamps to zero, an array which has grown beyond the
+     * initial capacity is replaced, so its memory is released
+     */
+    public void clear() {
+        if (timestamps.length > initialCapacity) {
+            timestamps = new long[initialCapacity];
+        } else {
+            reset();
+        }
+        size = 0;
+    }
+    
+}
@@ -31,14 +31,28 @@
 
 package com.sw_engineering_candies.yaca;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,7 +67,57 @@ public class WebServer extends Thread {
      */
     private static final Log LOGGER = LogFactory.getLog(WebServer.class);
     
-    private static final String NL = System.getProperty("line.separator");
+    private static final String CRLF = "\r\n";
+    
+    /**
+     * The connection of an idle client is closed after this time, it is
+     * longer than the default polling interval of the web page
+     */
+    private static final int KEEP_ALIVE_TIMEOUT_MILLIS = 15000;
+    
+    /**
+     * Each connection holds a thread of the pool, so idle connections are
+     * closed after this shorter time if most threads are in use
+     */
+    private static final int BUSY_KEEP_ALIVE_TIMEOUT_MILLIS = 1000;
+    
+    private static final int MAXIMUM_NUMBER_OF_CONNECTIONS = Integer.getInteger("yaca.httpConnections", 64);
+    
+    private static final int BUSY_NUMBER_OF_CONNECTIONS = MAXIMUM_NUMBER_OF_CONNECTIONS * 3 / 4;
+    
+    /**
+     * A stream holds its connection and thread until the client closes it,
+     * so the streams may use just a part of the pool
+     */
+    private static final int MAXIMUM_NUMBER_OF_STREAMS = Integer.getInteger("yaca.maxStreams",
+            MAXIMUM_NUMBER_OF_CONNECTIONS / 2);
+    
+    private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+    
+    private static final int DEFAULT_TREE_DEPTH = 32;
+    
+    private static final long DEFAULT_WINDOW_MILLIS = 10000L;
+    
+    private static final String BINARY_MIME_TYPE = "application/octet-stream";
+    
+    /**
+     * The files of the web page are cached by the browser for one day and
+     * validated with the ETag afterwards
+     */
+    private static final String STATIC_CACHE_CONTROL = "public, max-age=86400";
+    
+    /**
+     * The subscribers of /process/stream get the changes of the model once
+     * per interval, the counters are summed up over the window
+     */
+    private static final long STREAM_INTERVAL_MILLIS = Long.getLong("yaca.streamInterval", 1000L);
+    
+    private static final long STREAM_WINDOW_MILLIS = Long.getLong("yaca.streamWindow", DEFAULT_WINDOW_MILLIS);
+    
+    private static final byte[] STREAM_RETRY = ("retry: " + STREAM_INTERVAL_MILLIS + "\n\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    
+    private static final byte[] STREAM_HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
     
     private final List<String> STATIC_JS_FILES = Arrays.asList("dat.gui.js", //
             "detector.js", //
@@ -72,18 +136,74 @@ public class WebServer extends Thread {
      */
     private ClassLoader classLoader = null;
     
-    private Model model = null;
+    private final CallStackAnalyzer analyzer;
     
     private final int port;
     
-    private String options = "";
+    private volatile String options = "";
+    
+    /**
+     * Files of the web page, they are loaded once at start
+     */
+    private final Map<String, StaticResource> staticResources = new HashMap<String, StaticResource>();
+    
+    /**
+     * Streams of the models with subscribers, guarded by its own lock
+     */
+    private final Map<Model, ModelStream> streams = new HashMap<Model, ModelStream>();
+    
+    /**
+     * The subscribers of all streams, guarded by the lock of the streams
+     */
+    private int numberOfSubscribers = 0;
+    
+    private final ScheduledExecutorService streamExecutor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Yaca Stream");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    /**
+     * Each connection is handled by its own thread, the threads are reused
+     * and end after one minute without connection
+     */
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, MAXIMUM_NUMBER_OF_CONNECTIONS, 60L,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Yaca HTTP " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     
     /**
      * Constructor
      */
-    public WebServer(final int port, Model model) {
+    public WebServer(final int port, final CallStackAnalyzer analyzer) {
         this.port = port;
-        this.model = model;
+        this.analyzer = analyzer;
+        
+        staticResources.put("favicon.ico", StaticResource.load("favicon.ico", "image/x-icon"));
+        staticResources.put("styles/main.css", StaticResource.load("styles/main.css", "text/css"));
+        staticResources.put("index.html", StaticResource.load("index.html", "text/html"));
+        for (String resource : STATIC_JS_FILES) {
+            staticResources.put("external/" + resource,
+                    StaticResource.load("external/" + resource, "application/javascript"));
+        }
+        
+        streamExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                publishStreams();
+            }
+        }, STREAM_INTERVAL_MILLIS, STREAM_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
         
         if (classLoader == null) {
             classLoader = Class.class.getClassLoader();
@@ -105,184 +225,479 @@ public class WebServer extends Thread {
         while (serverSocket != null) {
             
             try {
-                // Get connection
+                // Get connection, each connection is handled by its own
+                // thread, so a slow client doesn't delay the others
                 final Socket socket = serverSocket.accept();
-                socket.setSoTimeout(2000);
-                
-                // Get I/O streams
-                final OutputStream out = socket.getOutputStream();
-                final InputStream in = socket.getInputStream();
-                
-                // Handle request
-                RequestData request = new RequestData(in);
-                if (request.isStartingWith("GET /favicon.ico")) {
-                    sendResponseForStaticFile(out, request.getFirstLine(), "favicon.ico", "image/x-icon");
-                } else if (request.isStartingWith("GET /monitor/styles/main.css")) {
-                    sendResponseForStaticFile(out, request.getFirstLine(), "styles/main.css", "text/css");
-                } else if (request.isStartingWith("GET /monitor/external")) {
-                    sendResponseForAllStaticJavaScriptFiles(out, request.getFirstLine());
-                } else if (request.isStartingWith("GET /analyzer/options")) {
-                    LOGGER.debug("GET options=" + options);
-                    sendResponseForString(out, options);
-                } else if (request.isStartingWith("PUT /analyzer/options")) {
-                    options = request.getBody();
-                    sendResponseForString(out, "OK");
-                    LOGGER.debug("PUT options=" + options);
-                } else if (request.isStartingWith("DELETE /analyzer")) {
-                    sendResponseForString(out, "OK");
-                    stopServer();
-                } else if (request.isStartingWith("DELETE /tasks")) {
-                    model.reset();
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("DELETE /filterWhite")) {
-                    model.setFilterWhiteList("");
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("DELETE /filterBlack")) {
-                    model.setFilterBlackList("");
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("PUT /filterWhite")) {
-                    model.setFilterWhiteList(request.getBody());
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("PUT /filterBlack")) {
-                    model.setFilterBlackList(request.getBody());
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("GET /process/ids")) {
-                    sendResponseForProcessIdRequest(out);
-                } else if (request.isStartingWith("PUT /process/id")) {
-                    CallStackAnalyzer.setProcessNewID(request.getBody());
-                    sendResponseForString(out, "OK");
-                } else if (request.isStartingWith("GET /process")) {
-                    sendResponseForModelRequest(out);
-                } else if (request.isStartingWith("GET /monitor")) {
-                    sendResponseForStaticFile(out, request.getFirstLine(), "index.html", "text/html");
-                } else {
-                    LOGGER.warn("Not expected request=" + request.getFirstLine());
-                }
-                
-                // Close all resources
                 try {
-                    in.close();
-                    out.close();
-                    socket.close();
-                } catch (final IOException e) {
-                    LOGGER.warn("Could not close resources : " + e);
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handleConnection(socket);
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    LOGGER.warn("Too many connections, close " + socket.getRemoteSocketAddress()
+                            + " (maximum yaca.httpConnections=" + MAXIMUM_NUMBER_OF_CONNECTIONS + ")");
+                    closeSocket(socket);
                 }
-                
-            } catch (final Exception e) {
-                LOGGER.warn("Could not handle request: ", e);
+            } catch (final IOException e) {
+                LOGGER.warn("Could not accept connection: ", e);
             }
         }
         
         stopServer();
     }
     
+    /**
+     * Handles the requests of the connection until the client closes it or
+     * it is idle for the keep alive timeout
+     */
+    private void handleConnection(final Socket socket) {
+        try (RequestParser parser = new RequestParser(socket.getInputStream())) {
+            socket.setTcpNoDelay(true);
+            
+            // Get output stream
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            final byte[] responseBuffer = new byte[RESPONSE_BUFFER_SIZE];
+            
+            boolean isKeepAlive = true;
+            while (isKeepAlive) {
+                socket.setSoTimeout(getIdleTimeout());
+                final RequestData request = parser.next();
+                if (null == request) {
+                    break;
+                }
+                isKeepAlive = request.isKeepAlive();
+                handleRequest(request, out, responseBuffer);
+                
+                // Responses of pipelined requests are sent together
+                if (!isKeepAlive || !parser.isDataAvailable()) {
+                    out.flush();
+                }
+            }
+        } catch (final SocketTimeoutException e) {
+            LOGGER.debug("Close idle connection " + socket.getRemoteSocketAddress());
+        } catch (final Exception e) {
+            LOGGER.warn("Could not handle request: ", e);
+        } finally {
+            closeSocket(socket);
+        }
+    }
+    
+    /**
+     * Returns the time a connection waits for the next request, it is short
+     * if most threads of the pool are in use
+     */
+    private int getIdleTimeout() {
+        final boolean isBusy = executor.getActiveCount() >= BUSY_NUMBER_OF_CONNECTIONS;
+        return isBusy ? BUSY_KEEP_ALIVE_TIMEOUT_MILLIS : KEEP_ALIVE_TIMEOUT_MILLIS;
+    }
+    
+    private void handleRequest(final RequestData request, final OutputStream out, final byte[] responseBuffer)
+            throws Exception {
+        
+        // Handle request, a process can be addressed by its id
+        final Model model = getModel(request);
+        if (request.isStartingWith("PUT /process ")) {
+            if (null == analyzer.attach(request.getProcessId())) {
+                sendResponseForBadRequest(out, "Invalid process id " + request.getProcessId());
+            } else {
+                sendResponseForString(out, "OK");
+            }
+        } else if (request.isStartingWith("DELETE /process ")) {
+            analyzer.detach(request.getProcessId());
+            sendResponseForString(out, "OK");
+        } else if (null == model) {
+            sendResponseForNotFound(out, "Process " + request.getProcessId() + " is not attached");
+        } else if (request.isStartingWith("GET /favicon.ico")) {
+            sendResponseForStaticFile(out, request, "favicon.ico");
+        } else if (request.isStartingWith("GET /monitor/styles/main.css")) {
+            sendResponseForStaticFile(out, request, "styles/main.css");
+        } else if (request.isStartingWith("GET /monitor/external")) {
+            sendResponseForAllStaticJavaScriptFiles(out, request);
+        } else if (request.isStartingWith("GET /analyzer/options")) {
+            LOGGER.debug("GET options=" + options);
+            sendResponseForString(out, options);
+        } else if (request.isStartingWith("PUT /analyzer/options")) {
+            options = request.getBody();
+            sendResponseForString(out, "OK");
+            LOGGER.debug("PUT options=" + options);
+        } else if (request.isStartingWith("DELETE /analyzer")) {
+            sendResponseForString(out, "OK");
+            out.flush();
+            stopServer();
+        } else if (isSettingRequest(request, "DELETE", "/tasks")) {
+            model.reset();
+            sendResponseForString(out, "OK");
+        } else if (isSettingRequest(request, "DELETE", "/filterWhite")) {
+            model.setFilterWhiteList("");
+            sendResponseForString(out, "OK");
+        } else if (isSettingRequest(request, "DELETE", "/filterBlack")) {
+            model.setFilterBlackList("");
+            sendResponseForString(out, "OK");
+        } else if (isSettingRequest(request, "PUT", "/filterWhite")) {
+            try {
+                model.setFilterWhiteList(request.getBody());
+                sendResponseForString(out, "OK");
+            } catch (final PatternSyntaxException e) {
+                sendResponseForInvalidFilter(out, e);
+            }
+        } else if (isSettingRequest(request, "PUT", "/filterBlack")) {
+            try {
+                model.setFilterBlackList(request.getBody());
+                sendResponseForString(out, "OK");
+            } catch (final PatternSyntaxException e) {
+                sendResponseForInvalidFilter(out, e);
+            }
+        } else if (isSettingRequest(request, "DELETE", "/filterThreads")) {
+            model.setThreadFilter("");
+            sendResponseForString(out, "OK");
+        } else if (isSettingRequest(request, "PUT", "/filterThreads")) {
+            try {
+                model.setThreadFilter(request.getBody());
+                sendResponseForString(out, "OK");
+            } catch (final PatternSyntaxException e) {
+                sendResponseForInvalidFilter(out, e);
+            }
+        } else if (request.isStartingWith("GET /process/ids")) {
+            sendResponseForProcessIdRequest(out);
+        } else if (request.isStartingWith("PUT /process/id")) {
+            analyzer.setActiveProcess(request.getBody());
+            sendResponseForString(out, "OK");
+        } else if (request.isStartingWith("GET /process/stream")) {
+            sendResponseForStreamRequest(out, model, request);
+        } else if (request.isStartingWith("GET /process/tree")) {
+            sendResponseForTreeRequest(out, model, request, responseBuffer);
+        } else if (request.isStartingWith("PUT /process/tree")) {
+            model.setTreeEnabled(Boolean.parseBoolean(request.getBody().trim()));
+            sendResponseForString(out, "OK");
+        } else if (request.isStartingWith("PUT /process/mode")) {
+            model.setCpuMode("cpu".equalsIgnoreCase(request.getBody().trim()));
+            sendResponseForString(out, "OK");
+        } else if (request.isStartingWith("GET /process")) {
+            sendResponseForModelRequest(out, model, request, responseBuffer);
+        } else if (request.isStartingWith("GET /monitor")) {
+            sendResponseForStaticFile(out, request, "index.html");
+        } else {
+            LOGGER.warn("Not expected request=" + request.getFirstLine());
+            sendResponseForNotFound(out, "Not found");
+        }
+    }
+    
+    private Model getModel(final RequestData request) {
+        return request.getProcessId().isEmpty() ? analyzer.getActiveModel() : analyzer.getModel(request.getProcessId());
+    }
+    
+    private static void closeSocket(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            LOGGER.warn("Could not close resources : " + e);
+        }
+    }
+    
     private void stopServer() {
         LOGGER.info("Server stopped");
         System.exit(0);
     }
     
-    private void sendResponseForAllStaticJavaScriptFiles(final OutputStream out, String requestMsg) throws Exception {
+    private void sendResponseForAllStaticJavaScriptFiles(final OutputStream out, final RequestData request)
+            throws Exception {
         for (String resource : STATIC_JS_FILES) {
-            if (requestMsg.contains(resource)) {
-                sendResponseForStaticFile(out, requestMsg, "external/" + resource, "application/javascript");
+            if (request.getFirstLine().contains(resource)) {
+                sendResponseForStaticFile(out, request, "external/" + resource);
+                return;
             }
         }
+        sendResponseForNotFound(out, "Not found");
     }
     
-    private void sendResponseForModelRequest(final OutputStream out) throws Exception {
+    /**
+     * The settings of a process can be addressed by its id, e.g. "PUT
+     * /process/1234/filterWhite", or without id for the active process, e.g.
+     * "PUT /filterWhite"
+     */
+    private static boolean isSettingRequest(final RequestData request, final String method, final String resource) {
+        return request.isStartingWith(method + " " + resource) || request.isStartingWith(method + " /process" + resource);
+    }
+    
+    private void sendResponseForModelRequest(final OutputStream out, final Model model, final RequestData request,
+            final byte[] responseBuffer) throws Exception {
         
-        // Create content of response
-        final String jsonpModel = model.getJSONPModel();
+        // Clients which know a version of the model request just the changes
+        final long since = getLongParameter(request, "since", 0L);
+        
+        // Each client selects its own window, e.g. last=10s or last=5m, and
+        // optionally exponential decay of the activity, e.g. decay=30s
+        final long windowMillis = getDurationParameter(request, "last", DEFAULT_WINDOW_MILLIS);
+        final long decayMillis = getDurationParameter(request, "decay", 0L);
+        
+        // The client selects the compact binary format with format=bin or
+        // the header Accept
+        final String accept = request.getHeader("accept");
+        final boolean isBinary = "bin".equals(request.getParameter("format"))
+                || (null != accept && accept.contains(BINARY_MIME_TYPE));
         
-        // For HTTP/1.0 or later send a MIME header
-        final String headerString = "HTTP/1.1 200 OK" + NL //
-                + "Server: Yaca-Agent "+  Agent.VERSION + NL //
-                + "Content-Type: application/json" + NL // 
-                + "Content-Length: " + jsonpModel.toString().getBytes("UTF-8").length + NL + NL;
+        // The length of the model is not known in advance, so the content is
+        // streamed in chunks
+        writeHeader(out, "200 OK", isBinary ? BINARY_MIME_TYPE : "application/json", -1L);
         
         // Write response
-        out.write(headerString.getBytes("UTF-8"));
-        out.write(jsonpModel.toString().getBytes("UTF-8"));
-        out.flush();
+        final ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+        if (isBinary) {
+            final BinaryStreamWriter binaryWriter = new BinaryStreamWriter(chunkedOut, responseBuffer);
+            final int knownNodes = (int) getLongParameter(request, "known", 0L);
+            model.writeBinaryModel(binaryWriter, since, windowMillis, decayMillis, knownNodes);
+            binaryWriter.flush();
+        } else {
+            final JsonStreamWriter jsonWriter = new JsonStreamWriter(chunkedOut, responseBuffer);
+            model.writeJSONPModel(jsonWriter, since, windowMillis, decayMillis);
+            jsonWriter.flush();
+        }
+        chunkedOut.close();
     }
     
-    private void sendResponseForProcessIdRequest(final OutputStream out) throws Exception {
+    /**
+     * Sends the model as Server-Sent Events until the client closes the
+     * connection, or the addressed model changes, e.g. a new process is
+     * active. In the last case the client connects again.
+     */
+    private void sendResponseForStreamRequest(final OutputStream out, final Model model, final RequestData request)
+            throws Exception {
+        ModelStream stream = null;
+        ModelStream.Subscriber subscriber = null;
+        synchronized (streams) {
+            if (numberOfSubscribers < MAXIMUM_NUMBER_OF_STREAMS) {
+                numberOfSubscribers++;
+                if (!streams.containsKey(model)) {
+                    streams.put(model, new ModelStream(model, STREAM_WINDOW_MILLIS));
+                }
+                stream = streams.get(model);
+                subscriber = stream.subscribe();
+            }
+        }
+        if (null == subscriber) {
+            LOGGER.warn("Too many streams, reject request=" + request.getFirstLine() + " (maximum yaca.maxStreams="
+                    + MAXIMUM_NUMBER_OF_STREAMS + ")");
+            sendResponseForServiceUnavailable(out, "Too many streams, poll the model");
+            return;
+        }
+        LOGGER.debug("Subscribe stream for request=" + request.getFirstLine());
+        try {
+            writeHeader(out, "200 OK", "text/event-stream", -1L, "Cache-Control: no-cache" + CRLF);
+            final ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+            chunkedOut.write(STREAM_RETRY);
+            chunkedOut.flush();
+            
+            long lastWriteMillis = System.currentTimeMillis();
+            while (model == getModel(request)) {
+                final byte[] event = subscriber.poll(STREAM_INTERVAL_MILLIS);
+                if (null != event) {
+                    chunkedOut.write(event);
+                } else if (System.currentTimeMillis() - lastWriteMillis >= KEEP_ALIVE_TIMEOUT_MILLIS) {
+                    // A comment line detects a closed connection
+                    chunkedOut.write(STREAM_HEARTBEAT);
+                } else {
+                    continue;
+                }
+                chunkedOut.flush();
+                lastWriteMillis = System.currentTimeMillis();
+            }
+            chunkedOut.close();
+        } finally {
+            stream.unsubscribe(subscriber);
+            synchronized (streams) {
+                numberOfSubscribers--;
+            }
+            LOGGER.debug("Unsubscribe stream for request=" + request.getFirstLine());
+        }
+    }
+    
+    /**
+     * Publishes the changes of all models with subscribers, streams without
+     * subscribers are removed
+     */
+    private void publishStreams() {
+        final List<ModelStream> activeStreams = new ArrayList<ModelStream>();
+        synchronized (streams) {
+            final Iterator<ModelStream> iterator = streams.values().iterator();
+            while (iterator.hasNext()) {
+                final ModelStream stream = iterator.next();
+                if (stream.hasSubscribers()) {
+                    activeStreams.add(stream);
+                } else {
+                    iterator.remove();
+                }
+            }
+        }
+        for (ModelStream stream : activeStreams) {
+            try {
+                stream.publish();
+            } catch (final Exception e) {
+                LOGGER.warn("Could not publish model: ", e);
+            }
+        }
+    }
+    
+    private void sendResponseForTreeRequest(final OutputStream out, final Model model, final RequestData request,
+            final byte[] responseBuffer) throws Exception {
         
-        // Find all process IDs
-        CallStackAnalyzer.findOtherAttachableJavaVMs();
-        LOGGER.info("VirtualMachines=" + CallStackAnalyzer.allVirtualMachines);
+        // Prune the tree to keep the response small
+        final int maxDepth = (int) getLongParameter(request, "depth", DEFAULT_TREE_DEPTH);
+        final long minCount = getLongParameter(request, "minCount", 1L);
         
-        // Give analyzer some time to collect data
-        Thread.sleep(10);
+        writeHeader(out, "200 OK", "application/json", -1L);
         
-        // Create content of response
-        final String jsonpModel = model.getJSONPVM();
+        // Write response
+        final ChunkedOutputStream chunkedOut = new ChunkedOutputStream(out);
+        final JsonStreamWriter jsonWriter = new JsonStreamWriter(chunkedOut, responseBuffer);
+        model.writeJSONTree(jsonWriter, maxDepth, minCount);
+        jsonWriter.flush();
+        chunkedOut.close();
+    }
+    
+    private static long getLongParameter(final RequestData request, final String name, final long defaultValue) {
+        final String value = request.getParameter(name);
+        if (!value.isEmpty()) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid parameter " + name + "=" + value);
+            }
+        }
+        return defaultValue;
+    }
+    
+    /**
+     * A duration is a number with the unit ms, s or m, the default unit is
+     * seconds
+     */
+    private static long getDurationParameter(final RequestData request, final String name, final long defaultValue) {
+        final String value = request.getParameter(name);
+        if (!value.isEmpty()) {
+            try {
+                if (value.endsWith("ms")) {
+                    return Long.parseLong(value.substring(0, value.length() - 2));
+                } else if (value.endsWith("s")) {
+                    return Long.parseLong(value.substring(0, value.length() - 1)) * 1000L;
+                } else if (value.endsWith("m")) {
+                    return Long.parseLong(value.substring(0, value.length() - 1)) * 60000L;
+                }
+                return Long.parseLong(value) * 1000L;
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid parameter " + name + "=" + value);
+            }
+        }
+        return defaultValue;
+    }
+    
+    private void sendResponseForProcessIdRequest(final OutputStream out) throws Exception {
         
-        // For HTTP/1.0 or later send a MIME header
-        final String headerString = "HTTP/1.1 200 OK" + NL //
-                + "Server: Yaca-Agent "+  Agent.VERSION + NL //
-                + "Content-Type: application/json" + NL //
-                + "Content-Length: " + jsonpModel.toString().getBytes("UTF-8").length + NL + NL;
+        // Create content of response
+        final String jsonpModel = analyzer.getJSONPVM();
         
         // Write response
-        out.write(headerString.getBytes("UTF-8"));
-        out.write(jsonpModel.toString().getBytes("UTF-8"));
-        out.flush();
+        final byte[] bytesBody = jsonpModel.getBytes("UTF-8");
+        writeHeader(out, "200 OK", "application/json", bytesBody.length);
+        out.write(bytesBody);
     }
     
-    private void sendResponseForStaticFile(final OutputStream out, String requestMsg, String resource, String mimeType) throws Exception {
+    private void sendResponseForStaticFile(final OutputStream out, final RequestData request, String resource)
+            throws Exception {
+        final StaticResource staticResource = staticResources.get(resource);
+        final String acceptEncoding = request.getHeader("accept-encoding");
+        final boolean isGzipAccepted = null != acceptEncoding && acceptEncoding.contains("gzip");
         
-        // Create content of requested file
-        InputStream fileContent = getClass().getResourceAsStream("/" + resource);
-        byte[] bytesBody = readStream(fileContent);
+        // The header is the same for a full and a not modified response
+        final String cacheHeaders = "ETag: " + staticResource.getETag(isGzipAccepted) + CRLF //
+                + "Cache-Control: " + (resource.equals("index.html") ? "no-cache" : STATIC_CACHE_CONTROL) + CRLF //
+                + "Vary: Accept-Encoding" + CRLF //
+                + (staticResource.isGzipUsed(isGzipAccepted) ? "Content-Encoding: gzip" + CRLF : "");
         
-        // For HTTP/1.0 or later send a MIME header
-        final String headerString = "HTTP/1.1 200 OK" + NL //
-                + "Server: Yaca-Agent "+  Agent.VERSION + NL //
-                + "Content-Type: " + mimeType + NL //
-                + "Content-Length: " + bytesBody.length + NL + NL;
-        byte[] bytesHeader = headerString.getBytes();
+        // The client has already the current content
+        if (staticResource.isMatching(request.getHeader("if-none-match"), isGzipAccepted)) {
+            out.write(("HTTP/1.1 304 Not Modified" + CRLF //
+                    + "Server: Yaca-Agent " + Agent.VERSION + CRLF //
+                    + cacheHeaders + CRLF).getBytes(StandardCharsets.ISO_8859_1));
+            LOGGER.debug("Return not modified as response for request=" + request.getFirstLine());
+            return;
+        }
         
         // Write response
-        out.write(bytesHeader);
+        final byte[] bytesBody = staticResource.getContent(isGzipAccepted);
+        writeHeader(out, "200 OK", staticResource.getMimeType(), bytesBody.length, cacheHeaders);
         out.write(bytesBody);
-        out.flush();
         
-        LOGGER.info("Return " + bytesBody.length + " bytes as resonse for request=" + requestMsg);
+        LOGGER.debug("Return " + bytesBody.length + " bytes as response for request=" + request.getFirstLine());
     }
     
     private void sendResponseForString(final OutputStream out, String body) throws IOException {
         
-        // For HTTP/1.0 or later send a MIME header
-        final String headerString = "HTTP/1.1 200 OK" + NL //
-                + "Server: Yaca-Agent " + Agent.VERSION + NL //
-                + "Content-Type: application/json" + NL //
-                + "Content-Length: " + body.getBytes("UTF-8").length + NL + NL;
+        // Write response
+        final byte[] bytesBody = body.getBytes("UTF-8");
+        writeHeader(out, "200 OK", "application/json", bytesBody.length);
+        out.write(bytesBody);
+    }
+    
+    private void sendResponseForBadRequest(final OutputStream out, String body) throws IOException {
         
         // Write response
-        out.write(headerString.getBytes("UTF-8"));
-        out.write(body.toString().getBytes("UTF-8"));
-        out.flush();
+        final byte[] bytesBody = body.getBytes("UTF-8");
+        writeHeader(out, "400 Bad Request", "text/plain", bytesBody.length);
+        out.write(bytesBody);
     }
     
-    private static byte[] readStream(InputStream ins) {
-        byte[] result = new byte[0];
-        try {
-            byte[] buffer = new byte[4096];
-            ByteArrayOutputStream outs = new ByteArrayOutputStream();
-            
-            int read = 0;
-            while ((read = ins.read(buffer)) != -1) {
-                outs.write(buffer, 0, read);
-            }
-            
-            ins.close();
-            outs.close();
-            result = outs.toByteArray();
-        } catch (Exception e) {
-            LOGGER.error("Can't read bytes from stream", e);
+    /**
+     * The filter is not changed, so the client gets the reason instead of OK
+     */
+    private void sendResponseForInvalidFilter(final OutputStream out, final PatternSyntaxException e)
+            throws IOException {
+        LOGGER.warn("Invalid filter " + e.getMessage());
+        sendResponseForBadRequest(out, "Invalid filter " + e.getMessage());
+    }
+    
+    private void sendResponseForServiceUnavailable(final OutputStream out, String body) throws IOException {
+        
+        // Write response
+        final byte[] bytesBody = body.getBytes("UTF-8");
+        writeHeader(out, "503 Service Unavailable", "text/plain", bytesBody.length);
+        out.write(bytesBody);
+    }
+    
+    private void sendResponseForNotFound(final OutputStream out, String body) throws IOException {
+        
+        // Write response
+        final byte[] bytesBody = body.getBytes("UTF-8");
+        writeHeader(out, "404 Not Found", "text/plain", bytesBody.length);
+        out.write(bytesBody);
+    }
+    
+    /**
+     * Writes the header of the response, the lines end with CRLF as required
+     * by HTTP. The content is sent in chunks, if the length is negative.
+     */
+    private static void writeHeader(final OutputStream out, final String status, final String mimeType,
+            final long contentLength) throws IOException {
+        writeHeader(out, status, mimeType, contentLength, "");
+    }
+    
+    /**
+     * Writes the header of the response with additional header lines, which
+     * have to end with CRLF
+     */
+    private static void writeHeader(final OutputStream out, final String status, final String mimeType,
+            final long contentLength, final String additionalHeaders) throws IOException {
+        final StringBuilder header = new StringBuilder(160);
+        header.append("HTTP/1.1 ").append(status).append(CRLF);
+        header.append("Server: Yaca-Agent ").append(Agent.VERSION).append(CRLF);
+        header.append("Content-Type: ").append(mimeType).append(CRLF);
+        if (contentLength < 0L) {
+            header.append("Transfer-Encoding: chunked").append(CRLF);
+        } else {
+            header.append("Content-Length: ").append(contentLength).append(CRLF);
         }
-        return result;
+        header.append(additionalHeaders).append(CRLF);
+        out.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
     }
     
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca;
+
+import java.util.Arrays;
+
+/**
+ * The class counts per id in a ring of time buckets. Only the current bucket
+ * is changed; when the time moves on, it is compacted to an immutable sparse
+ * bucket and replaces the oldest one. A rotation costs one pass over the ids
+ * counted in the finished bucket, independent of the number of ids and the
+ * number of retained buckets. Reading a window doesn't change the counters,
+ * so each client can ask for its own window. The compacted current bucket is
+ * kept until the next count, so reads without changes don't compact it again.
+ */
+public class WindowedCounters {
+    
+    /**
+     * Constants
+     */
+    public static final long BUCKET_MILLIS = 1000L;
+    
+    public static final int NUMBER_OF_BUCKETS = 300;
+    
+    public static final long MAXIMUM_WINDOW_MILLIS = BUCKET_MILLIS * NUMBER_OF_BUCKETS;
+    
+    /**
+     * Ring of the finished buckets, the current bucket is the last one of the
+     * retained buckets
+     */
+    private final CounterBucket[] finishedBuckets = new CounterBucket[NUMBER_OF_BUCKETS - 1];
+    
+    /**
+     * Index of the newest finished bucket in the ring
+     */
+    private int newestIndex = finishedBuckets.length - 1;
+    
+    /**
+     * Start time of the current bucket, it is a multiple of BUCKET_MILLIS
+     */
+    private long currentStartTime;
+    
+    /**
+     * Dense counters of the current bucket
+     */
+    private long[] currentCounts;
+    
+    /**
+     * Ids counted in the current bucket, to compact and clear it without a
+     * pass over all ids
+     */
+    private int[] touchedIds;
+    
+    private int numberOfTouchedIds = 0;
+    
+    /**
+     * Compacted copy of the current bucket, or null if it has changed since
+     * the last read. Reads without new counts don't compact again.
+     */
+    private CounterBucket currentBucket = null;
+    
+    /**
+     * Constructor
+     */
+    public WindowedCounters(final int expectedSize, final long time) {
+        currentCounts = new long[Math.max(expectedSize, 16)];
+        touchedIds = new int[Math.max(expectedSize, 16)];
+        currentStartTime = getBucketStartTime(time);
+    }
+    
+    public static long getBucketStartTime(final long time) {
+        return time - time % BUCKET_MILLIS;
+    }
+    
+    /**
+     * Finishes the current bucket, if the time is not in it anymore. Buckets
+     * without any count are not stored.
+     */
+    public void advance(final long time) {
+        final long startTime = getBucketStartTime(time);
+        if (startTime > currentStartTime) {
+            if (numberOfTouchedIds > 0) {
+                newestIndex = (newestIndex + 1) % finishedBuckets.length;
+                finishedBuckets[newestIndex] = getCurrentBucket();
+                for (int index = 0; index < numberOfTouchedIds; index++) {
+                    currentCounts[touchedIds[index]] = 0L;
+                }
+                numberOfTouchedIds = 0;
+            }
+            currentBucket = null;
+            currentStartTime = startTime;
+        }
+    }
+    
+    public void increment(final int id) {
+        if (id >= currentCounts.length) {
+            currentCounts = Arrays.copyOf(currentCounts, Math.max(id + 1, currentCounts.length * 2));
+        }
+        if (currentCounts[id] == 0L) {
+            if (numberOfTouchedIds == touchedIds.length) {
+                touchedIds = Arrays.copyOf(touchedIds, numberOfTouchedIds * 2);
+            }
+            touchedIds[numberOfTouchedIds++] = id;
+        }
+        currentCounts[id]++;
+        currentBucket = null;
+    }
+    
+    /**
+     * Returns the buckets of the last window, the current bucket included.
+     * The window is rounded up to full buckets. The returned buckets are
+     * immutable, so the caller can sum them without any lock.
+     */
+    public CounterBucket[] getBuckets(final long windowMillis) {
+        final long oldestStartTime = getWindowStartTime(currentStartTime, windowMillis);
+        
+        final CounterBucket[] result = new CounterBucket[NUMBER_OF_BUCKETS];
+        int length = 0;
+        if (numberOfTouchedIds > 0) {
+            result[length++] = getCurrentBucket();
+        }
+        for (int count = 0; count < finishedBuckets.length; count++) {
+            final int index = (newestIndex - count + finishedBuckets.length) % finishedBuckets.length;
+            final CounterBucket bucket = finishedBuckets[index];
+            if (null == bucket || bucket.getStartTime() < oldestStartTime) {
+                break;
+            }
+            result[length++] = bucket;
+        }
+        return Arrays.copyOf(result, length);
+    }
+    
+    /**
+     * Start time of the oldest bucket in a window, which ends with the bucket
+     * of the given time
+     */
+    public static long getWindowStartTime(final long time, final long windowMillis) {
+        final long numberOfBuckets = Math.min(NUMBER_OF_BUCKETS, Math.max(1L, (windowMillis + BUCKET_MILLIS - 1) / BUCKET_MILLIS));
+        return getBucketStartTime(time) - (numberOfBuckets - 1) * BUCKET_MILLIS;
+    }
+    
+    /**
+     * Renumbers the ids of all buckets, the counts of ids mapped to NO_ID are
+     * dropped
+     */
+    public void remap(final int[] newIds) {
+        for (int index = 0; index < finishedBuckets.length; index++) {
+            if (null != finishedBuckets[index]) {
+                finishedBuckets[index] = finishedBuckets[index].remap(newIds);
+            }
+        }
+        final int[] ids = Arrays.copyOf(touchedIds, numberOfTouchedIds);
+        final long[] counts = new long[numberOfTouchedIds];
+        for (int index = 0; index < numberOfTouchedIds; index++) {
+            counts[index] = currentCounts[ids[index]];
+            currentCounts[ids[index]] = 0L;
+        }
+        numberOfTouchedIds = 0;
+        for (int index = 0; index < ids.length; index++) {
+            final int newId = (ids[index] < newIds.length) ? newIds[ids[index]] : SymbolTable.NO_ID;
+            if (SymbolTable.NO_ID != newId) {
+                touchedIds[numberOfTouchedIds++] = newId;
+                currentCounts[newId] = counts[index];
+            }
+        }
+        currentBucket = null;
+    }
+    
+    /**
+     * Drops all buckets
+     */
+    public void clear() {
+        Arrays.fill(finishedBuckets, null);
+        for (int index = 0; index < numberOfTouchedIds; index++) {
+            currentCounts[touchedIds[index]] = 0L;
+        }
+        numberOfTouchedIds = 0;
+        currentBucket = null;
+    }
+    
+    private CounterBucket getCurrentBucket() {
+        if (null == currentBucket) {
+            currentBucket = compactCurrentBucket();
+        }
+        return currentBucket;
+    }
+    
+    private CounterBucket compactCurrentBucket() {
+        final int[] ids = Arrays.copyOf(touchedIds, numberOfTouchedIds);
+        final long[] counts = new long[numberOfTouchedIds];
+        for (int index = 0; index < numberOfTouchedIds; index++) {
+            counts[index] = currentCounts[ids[index]];
+        }
+        return new CounterBucket(currentStartTime, ids, counts);
+    }
+    
+}
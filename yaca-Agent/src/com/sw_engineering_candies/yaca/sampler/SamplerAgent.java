@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2012-2016, Markus Sprunck <sprunck.markus@gmail.com>
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * - The name of its contributor may be used to endorse or promote products
+ * derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.sw_engineering_candies.yaca.sampler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The class is a small agent, which is loaded into the target VM. It takes the
+ * call stacks of all threads with the ThreadMXBean and sends them as compact
+ * binary records over a local socket to the Yaca-Agent. Each frame is sent
+ * just once with its name, all stacks contain just the ids of the frames.
+ * 
+ * A sample is taken for each byte REQUEST_SAMPLE received, so the Yaca-Agent
+ * controls the sampling rate. The record FRAME_RECORD contains the id, class
+ * and method name of a new frame. The record SAMPLE_RECORD contains the time
+ * needed to take the sample in nanoseconds, the number of stacks and for each
+ * stack the depth and the frame ids, ordered from the called to the calling
+ * method like in a thread dump.
+ * 
+ * The request SET_THREAD_FILTER with a regular expression restricts the
+ * samples to the threads with a matching name, so the pause and the size of a
+ * sample scale with these threads only. The set of matching threads is
+ * refreshed each second.
+ * 
+ * The request SET_CPU_MODE with true restricts the samples to the threads in
+ * the state RUNNABLE, so just the stacks of threads which use the CPU are
+ * counted. The request with false takes the samples of all threads again.
+ * 
+ * The class must not use any library, because it runs in the target VM.
+ */
+public final class SamplerAgent implements Runnable {
+    
+    /**
+     * Constants
+     */
+    public static final byte REQUEST_SAMPLE = 0;
+    
+    public static final byte FRAME_RECORD = 1;
+    
+    public static final byte SAMPLE_RECORD = 2;
+    
+    public static final byte SET_THREAD_FILTER = 3;
+    
+    public static final byte SET_CPU_MODE = 4;
+    
+    private static final long THREAD_REFRESH_NANOS = 1000000000L;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Attributes
+     */
+    private final int port;
+    
+    private final long token;
+    
+    /**
+     * Ids of the frames by class and method name, the names of the
+     * StackTraceElement are used as keys without any concatenation
+     */
+    private final Map<String, Map<String, Integer>> frameIds = new HashMap<String, Map<String, Integer>>();
+    
+    private int frameIdCount = 0;
+    
+    /**
+     * Frame ids of the current sample, the stacks follow each other
+     */
+    private int[] sampleFrameIds = new int[4096];
+    
+    /**
+     * Pattern of the names of the sampled threads, all threads are sampled if
+     * it is null
+     */
+    private Pattern threadFilter = null;
+    
+    private long[] selectedThreadIds = new long[0];
+    
+    private long nextThreadRefreshNanos = 0L;
+    
+    /**
+     * In CPU mode just the stacks of running threads are sent
+     */
+    private boolean isCpuMode = false;
+    
+    /**
+     * Constructor
+     */
+    private SamplerAgent(final int port, final long token) {
+        this.port = port;
+        this.token = token;
+    }
+    
+    /**
+     * Entry point of the agent, the options are 'port,token'
+     */
+    public static void agentmain(final String options) {
+        final String[] values = options.split(",");
+        final SamplerAgent sampler = new SamplerAgent(Integer.parseInt(values[0]), Long.parseLong(values[1]));
+        final Thread thread = new Thread(sampler, "Yaca Sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Sends a sample for each request until the Yaca-Agent closes the
+     * connection
+     */
+    @Override
+    public void run() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final long ownThreadId = Thread.currentThread().getId();
+        try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            out.writeLong(token);
+            out.flush();
+            while (true) {
+                final byte request = in.readByte();
+                if (SET_THREAD_FILTER == request) {
+                    final String expression = in.readUTF();
+                    threadFilter = expression.isEmpty() ? null : Pattern.compile(expression);
+                    nextThreadRefreshNanos = System.nanoTime();
+                } else if (SET_CPU_MODE == request) {
+                    isCpuMode = in.readBoolean();
+                } else if (REQUEST_SAMPLE == request) {
+                    final long startNanos = System.nanoTime();
+                    writeSample(out, takeThreadInfos(threadMXBean, startNanos), ownThreadId, startNanos);
+                    out.flush();
+                } else {
+                    return;
+                }
+            }
+        } catch (final IOException | PatternSyntaxException e) {
+            // The Yaca-Agent has closed the connection or sent an invalid
+            // request
+        }
+    }
+    
+    /**
+     * Takes the stacks of all threads or just of the selected threads
+     */
+    private ThreadInfo[] takeThreadInfos(final ThreadMXBean threadMXBean, final long now) {
+        if (null == threadFilter) {
+            return threadMXBean.dumpAllThreads(false, false);
+        }
+        if (now - nextThreadRefreshNanos >= 0L) {
+            nextThreadRefreshNanos = now + THREAD_REFRESH_NANOS;
+            
+            // Without stack the thread infos are cheap
+            final long[] threadIds = threadMXBean.getAllThreadIds();
+            final ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(threadIds, 0);
+            int count = 0;
+            for (int index = 0; index < threadIds.length; index++) {
+                if (null != threadInfos[index] && threadFilter.matcher(threadInfos[index].getThreadName()).matches()) {
+                    threadIds[count++] = threadIds[index];
+                }
+            }
+            selectedThreadIds = Arrays.copyOf(threadIds, count);
+        }
+        return threadMXBean.getThreadInfo(selectedThreadIds, Integer.MAX_VALUE);
+    }
+    
+    private void writeSample(final DataOutputStream out, final ThreadInfo[] threadInfos, final long ownThreadId,
+            final long startNanos) throws IOException {
+        
+        // Send new frames first and collect the frame ids
+        int length = 0;
+        int numberOfStacks = 0;
+        for (final ThreadInfo threadInfo : threadInfos) {
+            if (null == threadInfo || threadInfo.getThreadId() == ownThreadId) {
+                continue;
+            }
+            if (isCpuMode && Thread.State.RUNNABLE != threadInfo.getThreadState()) {
+                continue;
+            }
+            final StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+            if (stackTrace.length == 0) {
+                continue;
+            }
+            if (length + stackTrace.length + 1 > sampleFrameIds.length) {
+                sampleFrameIds = Arrays.copyOf(sampleFrameIds, Math.max(length + stackTrace.length + 1, sampleFrameIds.length * 2));
+            }
+            sampleFrameIds[length++] = stackTrace.length;
+            for (final StackTraceElement element : stackTrace) {
+                sampleFrameIds[length++] = getFrameId(out, element);
+            }
+            numberOfStacks++;
+        }
+        
+        // Send the stacks
+        out.writeByte(SAMPLE_RECORD);
+        out.writeLong(System.nanoTime() - startNanos);
+        out.writeInt(numberOfStacks);
+        for (int index = 0; index < length; index++) {
+            out.writeInt(sampleFrameIds[index]);
+        }
+    }
+    
+    private int getFrameId(final DataOutputStream out, final StackTraceElement element) throws IOException {
+        Map<String, Integer> methodIds = frameIds.get(element.getClassName());
+        if (null == methodIds) {
+            methodIds = new HashMap<String, Integer>();
+            frameIds.put(element.getClassName(), methodIds);
+        }
+        Integer frameId = methodIds.get(element.getMethodName());
+        if (null == frameId) {
+            frameId = Integer.valueOf(frameIdCount++);
+            methodIds.put(element.getMethodName(), frameId);
+            out.writeByte(FRAME_RECORD);
+            out.writeInt(frameId.intValue());
+            out.writeUTF(element.getClassName());
+            out.writeUTF(element.getMethodName());
+        }
+        return frameId.intValue();
+    }
+    
+}
@@ -268,25 +268,25 @@ public abstract class HotSpotVirtualMachine extends VirtualMachine {
     /*
      * Utility method to read an 'int' from the input stream. Ideally
      * we should be using java.util.Scanner here but this implementation
-     * guarantees not to read ahead.
+     * guarantees not to read ahead. Streams of the platform implementation
+     * may buffer, so a single byte read is not a native call.
      */
     int readInt(InputStream in) throws IOException {
         StringBuilder sb = new StringBuilder();
 
         // read to \n or EOF
         int n;
-        byte buf[] = new byte[1];
         do {
-            n = in.read(buf, 0, 1);
-            if (n > 0) {
-                char c = (char)buf[0];
+            n = in.read();
+            if (n >= 0) {
+                char c = (char)n;
                 if (c == '\n') {
                     break;                  // EOL found
                 } else {
                     sb.append(c);
                 }
             }
-        } while (n > 0);
+        } while (n >= 0);
 
         if (sb.length() == 0) {
             throw new IOException("Premature EOF");
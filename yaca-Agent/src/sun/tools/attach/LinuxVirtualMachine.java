@@ -32,6 +32,8 @@ import com.sun.tools.attach.spi.AttachProvider;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /*
  * Linux implementation of HotSpotVirtualMachine
@@ -50,6 +52,15 @@ public class LinuxVirtualMachine extends HotSpotVirtualMachine {
     // The patch to the socket file created by the target VM
     String path;
 
+    // Size of the read buffer of a socket stream. Larger reads, e.g. of the
+    // thread dump parser, go directly into the buffer of the caller.
+    private static final int BUFFER_SIZE = 8192;
+
+    // The read buffers of closed socket streams are reused by the next
+    // commands. The attach listener of the target VM closes the connection
+    // after each command, so the socket itself can't be reused.
+    private final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<byte[]>();
+
     /**
      * Attaches to the target VM
      */
@@ -236,23 +247,27 @@ public class LinuxVirtualMachine extends HotSpotVirtualMachine {
     }
 
     /*
-     * InputStream for the socket connection to get target VM
+     * InputStream for the socket connection to get target VM. The stream is
+     * buffered with a pooled buffer, so reading the completion status and
+     * other small reads don't need a native call per byte.
      */
     private class SocketInputStream extends InputStream {
         int s;
+        byte[] buffer;
+        int position;
+        int limit;
 
         public SocketInputStream(int s) {
             this.s = s;
+            byte[] pooled = bufferPool.poll();
+            this.buffer = (pooled != null) ? pooled : new byte[BUFFER_SIZE];
         }
 
         public synchronized int read() throws IOException {
-            byte b[] = new byte[1];
-            int n = this.read(b, 0, 1);
-            if (n == 1) {
-                return b[0] & 0xff;
-            } else {
+            if (position == limit && fill() <= 0) {
                 return -1;
             }
+            return buffer[position++] & 0xff;
         }
 
         public synchronized int read(byte[] bs, int off, int len) throws IOException {
@@ -262,11 +277,50 @@ public class LinuxVirtualMachine extends HotSpotVirtualMachine {
             } else if (len == 0)
                 return 0;
 
-            return LinuxVirtualMachine.read(s, bs, off, len);
+            if (position == limit) {
+                // read large blocks without copying
+                if (len >= checkBuffer().length) {
+                    return LinuxVirtualMachine.read(s, bs, off, len);
+                }
+                if (fill() <= 0) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, bs, off, n);
+            position += n;
+            return n;
+        }
+
+        public synchronized int available() throws IOException {
+            return limit - position;
+        }
+
+        public synchronized void close() throws IOException {
+            if (buffer != null) {
+                bufferPool.offer(buffer);
+                buffer = null;
+                position = 0;
+                limit = 0;
+                LinuxVirtualMachine.close(s);
+            }
         }
 
-        public void close() throws IOException {
-            LinuxVirtualMachine.close(s);
+        private byte[] checkBuffer() throws IOException {
+            if (buffer == null) {
+                throw new IOException("Stream closed");
+            }
+            return buffer;
+        }
+
+        private int fill() throws IOException {
+            position = 0;
+            limit = 0;
+            int n = LinuxVirtualMachine.read(s, checkBuffer(), 0, buffer.length);
+            if (n > 0) {
+                limit = n;
+            }
+            return n;
         }
     }
 
@@ -298,21 +352,17 @@ public class LinuxVirtualMachine extends HotSpotVirtualMachine {
 
     /*
      * Write/sends the given to the target VM. String is transmitted in
-     * UTF-8 encoding.
+     * UTF-8 encoding, the terminating zero is sent with the same write.
      */
     private void writeString(int fd, String s) throws IOException {
-        if (s.length() > 0) {
-            byte b[];
-            try {
-                b = s.getBytes("UTF-8");
-            } catch (java.io.UnsupportedEncodingException x) {
-                throw new InternalError(x);
-            }
-            LinuxVirtualMachine.write(fd, b, 0, b.length);
+        byte b[];
+        try {
+            b = s.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException x) {
+            throw new InternalError(x);
         }
-        byte b[] = new byte[1];
-        b[0] = 0;
-        write(fd, b, 0, 1);
+        b = Arrays.copyOf(b, b.length + 1);
+        LinuxVirtualMachine.write(fd, b, 0, b.length);
     }
 
 